@@ -0,0 +1,124 @@
+package constructor;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of candidate edges, ordered the way {@link Connect} visits them greedily:
+ * by RA score level (highest score first), then by the collapse rank of the lower-ranked
+ * endpoint, then by the pattern of the other endpoint, then by its rank. That is exactly the
+ * order in which a full enumeration over the stub registry would produce the pairs, so the
+ * greedy result does not depend on the order candidates were pushed in.
+ *
+ * Slots are reused once the heap has been drained, so one instance serves every
+ * {@code connect()} call without reallocating.
+ */
+class CandidateHeap {
+    /** Per slot: endpoints and the four sort keys */
+    private int[] u = new int[16];
+    private int[] v = new int[16];
+    private int[] level = new int[16];
+    private int[] rankU = new int[16];
+    private int[] patternV = new int[16];
+    private int[] rankV = new int[16];
+    private int slots;
+
+    /** heap[i] = slot at heap position i */
+    private int[] heap = new int[16];
+    private int size;
+
+    /**
+     * @param cellU     lower-ranked endpoint
+     * @param cellV     higher-ranked endpoint
+     * @param lvl       RA score level of the pair's pattern pair (0 = highest score)
+     * @param rU        collapse rank of cellU
+     * @param pV        collapsed pattern of cellV
+     * @param rV        collapse rank of cellV
+     */
+    void push(int cellU, int cellV, int lvl, int rU, int pV, int rV) {
+        if (size == 0) {
+            slots = 0;
+        }
+        if (slots == u.length) {
+            int capacity = slots * 2;
+            u = Arrays.copyOf(u, capacity);
+            v = Arrays.copyOf(v, capacity);
+            level = Arrays.copyOf(level, capacity);
+            rankU = Arrays.copyOf(rankU, capacity);
+            patternV = Arrays.copyOf(patternV, capacity);
+            rankV = Arrays.copyOf(rankV, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+        }
+        int s = slots++;
+        u[s] = cellU;
+        v[s] = cellV;
+        level[s] = lvl;
+        rankU[s] = rU;
+        patternV[s] = pV;
+        rankV[s] = rV;
+
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(s, heap[parent])) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = s;
+    }
+
+    /**
+     * Removes the first candidate; read it with {@link #u(int)} and {@link #v(int)}
+     * before the next push.
+     *
+     * @return the slot of the removed candidate
+     * @throws IllegalStateException if the heap is empty
+     */
+    int poll() {
+        if (size == 0) throw new IllegalStateException("No candidates left");
+        int top = heap[0];
+        int last = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(heap[child + 1], heap[child])) child++;
+            if (!before(heap[child], last)) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = last;
+        }
+        return top;
+    }
+
+    /**
+     * @return true if no candidate is queued
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param  slot  a slot returned by {@link #poll()}
+     * @return       the lower-ranked endpoint
+     */
+    int u(int slot) {
+        return u[slot];
+    }
+
+    /**
+     * @param  slot  a slot returned by {@link #poll()}
+     * @return       the higher-ranked endpoint
+     */
+    int v(int slot) {
+        return v[slot];
+    }
+
+    private boolean before(int a, int b) {
+        if (level[a] != level[b]) return level[a] < level[b];
+        if (rankU[a] != rankU[b]) return rankU[a] < rankU[b];
+        if (patternV[a] != patternV[b]) return patternV[a] < patternV[b];
+        return rankV[a] < rankV[b];
+    }
+}
@@ -1,8 +1,11 @@
 package constructor;
 
-import wfc.Cell;
+import patterns.CompatibilityMatrix;
+import patterns.ResourceAllocation;
+import wfc.CellStore;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Connects collapsed cells by adding edges in a way that exactly mirrors
@@ -19,100 +22,164 @@ import java.util.*;
  *
  * 1. Stub counting
  *    • For each collapsed cell, compute how many more edges it needs by
- *      subtracting its current adjacency size from its target degree.
+ *      subtracting its current degree from its degree target in the CellStore.
  *
  * 2. Candidate generation
- *    • Examine each unordered pair of cells that both still have stubs.
- *    • First, check direct‐neighbor compatibility: look up the two patterns
- *      in the radius=1 compatibility table to confirm they were seen side by side.
+ *    • Keep every cell that still has stubs in a StubRegistry, bucketed by its
+ *      collapsed pattern ID and ranked by collapse order. The registry lives
+ *      across calls and is updated only for the cells the CellStore reports as
+ *      changed (collapsed, gained an edge or got a new degree target).
+ *    • Each cell only visits the buckets of patterns set in its radius=1
+ *      compatibility row (or column), so only pairs that were seen side by side
+ *      in training are ever examined.
+ *    • Only cells whose surroundings changed since the previous call (“dirty”
+ *      cells: changed cells and the collapsed cells within maxRadius−1 hops of
+ *      them) are paired. Apart from scanning the compatible buckets of each dirty
+ *      cell, the work of a call is proportional to the changed cells and their
+ *      balls, not to the number of cells or patterns.
  *
  * 3. Path validation
- *    • For each tentative pairing (u, v), perform a breadth‐first traversal
- *      starting from u and separately from v, up to a depth of maxRadius−1.
- *    • At BFS layer k (1 ≤ k < maxRadius), every newly discovered collapsed
- *      neighbor w at that distance must have appeared next to v’s pattern in
- *      the radius=(k+1) compatibility table. If any check fails, the pair is rejected.
- *    • By driving the BFS strictly outward—only enqueueing neighbors whose
- *      recorded depth increments by exactly one—we never revisit shallower layers
- *      or confuse adjacency order with layer membership.
+ *    • For each tentative pairing (u, v), read the balls of u and of v (the cells
+ *      at each shortest-path distance, kept up to date by the CellStore) out to
+ *      distance maxRadius−1.
+ *    • Every collapsed cell w at distance k (1 ≤ k < maxRadius) from u must have
+ *      appeared next to v’s pattern in the radius=(k+1) compatibility table, and
+ *      vice versa. If any check fails, the pair is rejected.
  *
  * 4. Scoring with Resource‐Allocation (RA)
- *    • For each surviving candidate pair, compute an RA score:
+ *    • Each surviving candidate pair is scored by the RA score of its pattern pair:
  *        Σ_{m ∈ N₁(pA) ∩ N₁(pB)} 1 / |N₁(m)|
  *      where N₁(p) is the set of patterns adjacent to p at radius=1.
  *    • This metric favors pairs that share high‐centrality common neighbors.
+ *    • Scores are read from a {@link ResourceAllocation} table built once after
+ *      training, together with the score level (rank among distinct scores).
  *
  * 5. Greedy edge addition
- *    • Sort all candidate pairs by descending RA score.
- *    • Iterate in that order, and for each pair with both endpoints still
+ *    • Queue all candidate pairs in a heap ordered by score level (descending RA
+ *      score), ties broken by collapse rank and pattern, so the order does not
+ *      depend on which dirty cell produced a pair.
+ *    • Pop in that order, and for each pair with both endpoints still
  *      having available stubs, add the mutual adjacency and decrement their stubs.
  *    • Stop when no stubs remain or all candidates are exhausted.
  *
  */
 
 public class Connect {
-    private final Map<Cell, List<Cell>> adj;
-    private final Map<Integer, Map<Integer, Set<Integer>>> compatByRadius;
+    private final CellStore cells;
+    private final CompatibilityMatrix compat;
+    private final ResourceAllocation ra;
     private final int maxRadius;
+    private final EdgeListener onEdgeAdded;
+
+    /** Dirty cells per scoring block, and the fewest dirty cells worth scoring in parallel */
+    private static final int BLOCK_SIZE = 64;
+    private static final int PARALLEL_MIN_CELLS = 4 * BLOCK_SIZE;
+
+    /** Score dirty cells on the common fork/join pool when there are enough of them */
+    private final boolean parallel;
+
+    /** Candidates of the current call, kept across calls so its storage is reused */
+    private final CandidateHeap candidates = new CandidateHeap();
+
+    /** Candidate buffer of sequential scoring, reused across calls */
+    private final CandidateBuffer scratch = new CandidateBuffer();
+
+    /** Open stubs of all collapsed cells, kept up to date across calls */
+    private final StubRegistry registry;
+
+    /** dirtyStamp[cell] == dirtyEpoch marks cells whose pairs must be re-examined this call */
+    private int[] dirtyStamp = new int[16];
+    private int dirtyEpoch;
+
+    /** Cells stamped this call, in stamping order */
+    private int[] dirtyCells = new int[16];
+    private int dirtyCount;
 
     /**
-     * @param adjacency       current adjacency of collapsed cells (will be updated)
-     * @param compatByRadius  compatibility data: radius → (patternID → compatible patternIDs)
+     * Receives every edge this class adds.
      */
-    public Connect(Map<Cell, List<Cell>> adjacency,
-                   Map<Integer, Map<Integer, Set<Integer>>> compatByRadius) {
-        this.adj = Objects.requireNonNull(adjacency, "adjacency must not be null");
-        this.compatByRadius = Objects.requireNonNull(compatByRadius, "compatByRadius must not be null");
-        this.maxRadius = compatByRadius.keySet().stream()
-                .max(Integer::compareTo)
-                .orElse(1);
+    @FunctionalInterface
+    public interface EdgeListener {
+        /**
+         * @param u first endpoint
+         * @param v second endpoint
+         */
+        void edgeAdded(int u, int v);
     }
 
     /**
-     * Fills each cell’s remaining edge slots by linking valid pairs.
-     *
-     * @param collapsed     list of collapsed cells whose patterns are fixed
-     * @param targetDegree  desired degree (edge count) for each collapsed cell
-     * @return              the total number of edges successfully added
+     * @param cells        generated cells; collapsed cells are wired and their adjacency updated.
+     *                     Its balls must reach at least maxRadius−1 hops
+     * @param compat       compatibility bit rows per radius over the dense pattern index
+     * @param ra           RA scores of all radius=1 compatible pattern pairs of compat
+     * @param parallel     true to score and validate candidate pairs on all cores
+     *                     (the edges added are the same either way)
+     * @param onEdgeAdded  notified with both endpoints of every edge this class adds
+     * @throws IllegalArgumentException if the store's balls are too small for compat
      */
-    public int connect(List<Cell> collapsed,
-                       Map<Cell, Integer> targetDegree) {
-        // 1) Determine how many stubs (remaining edges) each cell needs
-        Map<Cell, Integer> stubs = countStubs(collapsed, targetDegree);
+    public Connect(CellStore cells,
+                   CompatibilityMatrix compat,
+                   ResourceAllocation ra,
+                   boolean parallel,
+                   EdgeListener onEdgeAdded) {
+        this.cells = Objects.requireNonNull(cells, "cells must not be null");
+        this.compat = Objects.requireNonNull(compat, "compat must not be null");
+        this.ra = Objects.requireNonNull(ra, "ra must not be null");
+        this.parallel = parallel;
+        this.onEdgeAdded = Objects.requireNonNull(onEdgeAdded, "onEdgeAdded must not be null");
+        this.maxRadius = Math.max(1, compat.maxRadius());
+        if (cells.ballRadius() < maxRadius - 1) {
+            throw new IllegalArgumentException("CellStore balls reach " + cells.ballRadius()
+                    + " hops, validation needs " + (maxRadius - 1));
+        }
+        this.registry = new StubRegistry(cells, compat.patternCount());
+    }
 
-        // 2) Immediate compatibility map at radius=1
-        Map<Integer, Set<Integer>> radiusOne = compatByRadius.getOrDefault(1, Collections.emptyMap());
+    /**
+     * Fills each collapsed cell’s remaining edge slots (degree target minus degree)
+     * by linking valid pairs.
+     *
+     * Only pairs with at least one dirty endpoint are examined. Every pair that was valid
+     * in an earlier call was visited by that call's greedy pass, which either linked it or
+     * found an endpoint without stubs (stubs never come back), so a pair of two unchanged
+     * stub cells is known to have failed validation and would fail it again.
+     *
+     * @return the total number of edges successfully added
+     */
+    public int connect() {
+        // 1) Update the registry and mark every cell whose validation may have changed
+        //    since the previous call; only the dirty cells that have stubs are paired
+        int[] dirty = markDirtyCells();
 
-        // 3) Score eligible pairs using Resource-Allocation
-        Map<CellPair, Double> candidateScores = new HashMap<>();
-        List<Cell> cells = new ArrayList<>(stubs.keySet());
-        for (int i = 0; i < cells.size(); i++) {
-            Cell u = cells.get(i);
-            for (int j = i + 1; j < cells.size(); j++) {
-                Cell v = cells.get(j);
-                if (!canConsiderPair(u, v, stubs, radiusOne)) continue;
-                int pA = u.getCollapsedPattern();
-                int pB = v.getCollapsedPattern();
-                if (!validateAllPaths(u, pB) || !validateAllPaths(v, pA)) continue;
-                double score = computeRA(pA, pB);
-                candidateScores.put(new CellPair(u, v), score);
+        // 2) Score the pairs of every dirty stub cell, in row blocks, then queue them.
+        //    Blocks only read the store, so they may run concurrently; every candidate
+        //    has a distinct heap key, so the greedy order below is the same whichever
+        //    block found a pair and in whatever order the blocks finish.
+        int blocks = (dirty.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (parallel && dirty.length >= PARALLEL_MIN_CELLS) {
+            CandidateBuffer[] found = new CandidateBuffer[blocks];
+            IntStream.range(0, blocks).parallel().forEach(b -> {
+                found[b] = new CandidateBuffer();
+                scoreBlock(dirty, b * BLOCK_SIZE, Math.min(dirty.length, (b + 1) * BLOCK_SIZE), found[b]);
+            });
+            for (CandidateBuffer buffer : found) {
+                buffer.drainTo(candidates);
             }
+        } else {
+            scoreBlock(dirty, 0, dirty.length, scratch);
+            scratch.drainTo(candidates);
         }
 
-        // 4) Sort candidate pairs by score descending
-        List<Map.Entry<CellPair, Double>> entries = new ArrayList<>(candidateScores.entrySet());
-        entries.sort((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()));
-
-        // 5) Greedily add edges until stubs are exhausted
+        // 3) Greedily add edges in descending RA order until stubs are exhausted;
+        //    pairs whose endpoint ran out of stubs are simply dropped. The store records
+        //    the endpoints as changed, so the next call updates the registry for them.
         int added = 0;
-        for (var entry : entries) {
-            CellPair pair = entry.getKey();
-            Cell u = pair.u, v = pair.v;
-            if (stubs.get(u) > 0 && stubs.get(v) > 0) {
-                adj.computeIfAbsent(u, k -> new ArrayList<>()).add(v);
-                adj.computeIfAbsent(v, k -> new ArrayList<>()).add(u);
-                stubs.put(u, stubs.get(u) - 1);
-                stubs.put(v, stubs.get(v) - 1);
+        while (!candidates.isEmpty()) {
+            int slot = candidates.poll();
+            int u = candidates.u(slot), v = candidates.v(slot);
+            if (registry.stubs(u) > 0 && registry.stubs(v) > 0) {
+                cells.addEdge(u, v);
+                onEdgeAdded.edgeAdded(u, v);
                 added++;
             }
         }
@@ -120,143 +187,208 @@ public class Connect {
     }
 
     /**
-     * Checks if two cells are eligible for a new edge:
-     *   Distinct cells with remaining stubs
-     *   Not already adjacent
-     *   Their patterns were direct neighbors in training (radius=1)
+     * Finds the valid pairs of the dirty cells dirty[from … to-1]. Each cell visits, as the
+     * lower-ranked endpoint, the buckets of its radius=1 row and, as the higher-ranked
+     * endpoint, the buckets of its radius=1 column, skipping dirty partners there, which
+     * find that pair themselves. Only reads shared state.
      *
-     * @param u           first cell
-     * @param v           second cell
-     * @param stubs       map of cell → remaining stubs
-     * @param radiusOne   radius=1 compatibility (patternID → compatible patternIDs)
-     * @return            true if u and v can be considered for linking
+     * @param dirty     dirty listed cells, in rank order
+     * @param from      first position in dirty
+     * @param to        position past the last one
+     * @param out       receives the valid pairs
      */
-    private boolean canConsiderPair(Cell u,
-                                    Cell v,
-                                    Map<Cell, Integer> stubs,
-                                    Map<Integer, Set<Integer>> radiusOne) {
-        if (u == v) return false;
-        if (stubs.getOrDefault(u, 0) <= 0 || stubs.getOrDefault(v, 0) <= 0) return false;
-        if (adj.getOrDefault(u, Collections.emptyList()).contains(v)) return false;
-        int pA = u.getCollapsedPattern();
-        int pB = v.getCollapsedPattern();
-        return radiusOne.getOrDefault(pA, Collections.emptySet()).contains(pB);
+    private void scoreBlock(int[] dirty, int from, int to, CandidateBuffer out) {
+        for (int i = from; i < to; i++) {
+            int x = dirty[i];
+            int rankX = registry.rank(x);
+            int pX = cells.collapsedPattern(x);
+
+            for (int e = ra.rowStart(pX), rowEnd = ra.rowEnd(pX); e < rowEnd; e++) {
+                int pB = ra.partner(e);
+                for (int k = 0, end = registry.bucketSize(pB); k < end; k++) {
+                    int y = registry.bucketCell(pB, k);
+                    if (registry.rank(y) <= rankX) continue;
+                    offer(x, y, ra.level(e), rankX, out);
+                }
+            }
+            for (int c = ra.columnStart(pX), colEnd = ra.columnEnd(pX); c < colEnd; c++) {
+                int e = ra.columnEntry(c);
+                int pA = ra.owner(e);
+                for (int k = 0, end = registry.bucketSize(pA); k < end; k++) {
+                    int y = registry.bucketCell(pA, k);
+                    if (registry.rank(y) >= rankX) break;  // buckets are in rank order
+                    if (dirtyStamp[y] == dirtyEpoch) continue;
+                    offer(y, x, ra.level(e), registry.rank(y), out);
+                }
+            }
+        }
     }
 
     /**
-     * Computes how many more edges (stubs) each cell still needs
-     * to reach its target degree.
+     * Records the pair (u, v) if it is eligible and passes path validation.
      *
-     * @param collapsed     list of collapsed cells
-     * @param targetDegree  desired degree map for each cell
-     * @return              map of cell → number of remaining stubs
+     * @param u         lower-ranked stub cell
+     * @param v         higher-ranked stub cell
+     * @param level     RA score level of the pair's pattern pair
+     * @param rankU     collapse rank of u
+     * @param out       receives the pair
      */
-    private Map<Cell, Integer> countStubs(List<Cell> collapsed,
-                                          Map<Cell, Integer> targetDegree) {
-        Map<Cell, Integer> stubs = new HashMap<>();
-        for (Cell cell : collapsed) {
-            int want = targetDegree.getOrDefault(cell, 0);
-            int have = adj.getOrDefault(cell, Collections.emptyList()).size();
-            int rem  = Math.max(0, want - have);
-            if (rem > 0) {
-                stubs.put(cell, rem);
-            }
-        }
-        return stubs;
+    private void offer(int u, int v, int level, int rankU, CandidateBuffer out) {
+        if (!canConsiderPair(u, v)) return;
+        int pU = cells.collapsedPattern(u);
+        int pV = cells.collapsedPattern(v);
+        if (!validateAllPaths(u, pV) || !validateAllPaths(v, pU)) return;
+        out.add(u, v, level, rankU, pV, registry.rank(v));
     }
 
     /**
-     * Validates that linking 'start' to a cell with pattern pEnd
-     * does not break compatibility at larger radii.
+     * Starts a new dirty epoch, brings the registry up to date for every cell the store
+     * reports as changed, and marks every collapsed cell whose path validation may differ
+     * from the previous call.
      *
-     * Performs a BFS from 'start' up to depth maxRadius-1. At each layer k,
-     * it checks that every encountered collapsed neighbor’s pattern is compatible
-     * with pEnd at radius k+1. Returns false immediately on any violation.
+     * Validation of a cell looks at the collapsed cells in its ball of radius maxRadius−1,
+     * over paths through any cells, collapsed or not. That ball only changes when a cell
+     * collapses or an edge is added, and every edge has a collapsed endpoint, which then
+     * gains degree. So every changed cell (collapsed, gained an edge or got a new degree
+     * target) is marked, together with every collapsed cell within maxRadius−1 hops of it.
      *
-     * @param start   the starting collapsed cell
-     * @param pEnd    the pattern ID of the prospective neighbor
-     * @return        true if all implied paths up to maxRadius are valid
+     * @return the marked cells that are listed in the registry, in rank order
      */
-    private boolean validateAllPaths(Cell start, int pEnd) {
-        Deque<Cell> queue = new ArrayDeque<>();
-        Set<Cell> visited = new HashSet<>();
+    private int[] markDirtyCells() {
+        int n = cells.size();
+        if (dirtyStamp.length < n) {
+            dirtyStamp = Arrays.copyOf(dirtyStamp, Math.max(n, dirtyStamp.length * 2));
+        }
+        if (++dirtyEpoch == 0) {
+            Arrays.fill(dirtyStamp, 0);
+            dirtyEpoch = 1;
+        }
+        dirtyCount = 0;
+
+        // 1) Stubs only change for changed cells, so only they are (un)listed
+        int[] changed = cells.drainChanged();
+        for (int cell : changed) {
+            registry.update(cell);
+        }
 
-        queue.add(start);
-        visited.add(start);
-        int depth = 0;
+        // 2) Mark around every change
+        for (int cell : changed) {
+            markAround(cell);
+        }
 
-        while (!queue.isEmpty() && depth < maxRadius - 1) {
-            depth++;
-            int levelSize = queue.size();
-            Map<Integer, Set<Integer>> table = compatByRadius.getOrDefault(depth + 1, Collections.emptyMap());
+        // 3) Keep the listed ones, ordered by rank
+        int[] ranks = new int[dirtyCount];
+        int listed = 0;
+        for (int k = 0; k < dirtyCount; k++) {
+            int cell = dirtyCells[k];
+            if (registry.isListed(cell)) {
+                ranks[listed++] = registry.rank(cell);
+            }
+        }
+        Arrays.sort(ranks, 0, listed);
+        int[] dirty = new int[listed];
+        for (int k = 0; k < listed; k++) {
+            dirty[k] = cells.settled(ranks[k]);
+        }
+        return dirty;
+    }
 
-            for (int i = 0; i < levelSize; i++) {
-                Cell cur = queue.poll();
-                for (Cell nbr : adj.getOrDefault(cur, Collections.emptyList())) {
-                    if (!visited.add(nbr) || !nbr.isCollapsed()) continue;
-                    int pX = nbr.getCollapsedPattern();
-                    if (!table.getOrDefault(pX, Collections.emptySet()).contains(pEnd)) {
-                        return false;
-                    }
-                    queue.add(nbr);
+    /**
+     * Marks a collapsed cell and every collapsed cell within maxRadius−1 hops of it
+     * as dirty.
+     *
+     * @param start id of a collapsed cell
+     */
+    private void markAround(int start) {
+        mark(start);
+        for (int d = 1; d < maxRadius; d++) {
+            for (int k = 0, n = cells.ballSize(start, d); k < n; k++) {
+                int cell = cells.ballCell(start, d, k);
+                if (cells.isCollapsed(cell)) {
+                    mark(cell);
                 }
             }
         }
-        return true;
+    }
+
+    private void mark(int cell) {
+        if (dirtyStamp[cell] == dirtyEpoch) return;
+        dirtyStamp[cell] = dirtyEpoch;
+        if (dirtyCount == dirtyCells.length) {
+            dirtyCells = Arrays.copyOf(dirtyCells, dirtyCount * 2);
+        }
+        dirtyCells[dirtyCount++] = cell;
     }
 
     /**
-     * Computes the Resource-Allocation (RA) score for two pattern IDs.
+     * Checks if two cells are eligible for a new edge:
+     *   Distinct cells with remaining stubs
+     *   Not already adjacent
      *
-     * RA = sum_{m in N1(pA) ∩ N1(pB)} 1 / |N1(m)|
-     * where N1(p) is the set of patterns adjacent to p at radius=1.
+     * Radius=1 compatibility is already guaranteed by the bucket the partner was taken from.
      *
-     * @param pA  first pattern ID
-     * @param pB  second pattern ID
-     * @return    RA score reflecting weighted shared 1-hop neighborhood
+     * @param u           first cell id
+     * @param v           second cell id
+     * @return            true if u and v can be considered for linking
      */
-    private double computeRA(int pA, int pB) {
-        Map<Integer, Set<Integer>> r1 = compatByRadius.getOrDefault(1, Collections.emptyMap());
-        Set<Integer> neighA = r1.getOrDefault(pA, Collections.emptySet());
-        Set<Integer> neighB = r1.getOrDefault(pB, Collections.emptySet());
+    private boolean canConsiderPair(int u, int v) {
+        if (u == v) return false;
+        if (registry.stubs(u) <= 0 || registry.stubs(v) <= 0) return false;
+        return !cells.isAdjacent(u, v);
+    }
 
-        double score = 0.0;
-        for (int m : neighA) {
-            if (neighB.contains(m)) {
-                int deg = r1.getOrDefault(m, Collections.emptySet()).size();
-                if (deg > 0) {
-                    score += 1.0 / deg;
+    /**
+     * Validates that linking 'start' to a cell with pattern pEnd
+     * does not break compatibility at larger radii.
+     *
+     * Reads the ball of 'start' out to distance maxRadius-1. Every collapsed cell at
+     * distance k must have a pattern compatible with pEnd at radius k+1, since the new
+     * edge puts it at most k+1 hops from the partner. Returns false immediately on any
+     * violation.
+     *
+     * @param start   id of the starting collapsed cell
+     * @param pEnd    the pattern index of the prospective neighbor
+     * @return        true if all implied paths up to maxRadius are valid
+     */
+    private boolean validateAllPaths(int start, int pEnd) {
+        for (int d = 1; d < maxRadius; d++) {
+            for (int k = 0, n = cells.ballSize(start, d); k < n; k++) {
+                int cell = cells.ballCell(start, d, k);
+                if (cells.isCollapsed(cell) && !compat.compatible(d + 1, cells.collapsedPattern(cell), pEnd)) {
+                    return false;
                 }
             }
         }
-        return score;
+        return true;
     }
 
     /**
-     * Key for an unordered pair of cells, so (u,v) == (v,u).
+     * Growable list of scored candidate pairs, filled by one scoring block.
      */
-    private static class CellPair {
-        final Cell u, v;
+    private static final class CandidateBuffer {
+        /** Six ints per candidate: u, v, level, rank of u, pattern of v, rank of v */
+        private int[] data = new int[6 * 16];
+        private int size;
 
-        CellPair(Cell a, Cell b) {
-            if (System.identityHashCode(a) <= System.identityHashCode(b)) {
-                u = a; v = b;
-            } else {
-                u = b; v = a;
+        void add(int u, int v, int level, int rankU, int patternV, int rankV) {
+            if (size + 6 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
             }
+            data[size] = u;
+            data[size + 1] = v;
+            data[size + 2] = level;
+            data[size + 3] = rankU;
+            data[size + 4] = patternV;
+            data[size + 5] = rankV;
+            size += 6;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof CellPair)) return false;
-            CellPair p = (CellPair) o;
-            return u == p.u && v == p.v;
-        }
-
-        @Override
-        public int hashCode() {
-            return System.identityHashCode(u) * 31 + System.identityHashCode(v);
+        /** Pushes every buffered candidate into the heap and empties the buffer. */
+        void drainTo(CandidateHeap heap) {
+            for (int i = 0; i < size; i += 6) {
+                heap.push(data[i], data[i + 1], data[i + 2], data[i + 3], data[i + 4], data[i + 5]);
+            }
+            size = 0;
         }
     }
 }
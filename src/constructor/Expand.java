@@ -1,6 +1,8 @@
 package constructor;
 
-import wfc.Cell;
+import wfc.CellStore;
+import wfc.Domain;
+import wfc.Frontier;
 
 import java.util.*;
 
@@ -17,7 +19,7 @@ import java.util.*;
  * 2. Assigns each cell a base number of expansion slots using proportional allocation,
  *    with per-cell caps and a minimum of 1.
  * 3. Distributes any leftover budget using the largest remainder method.
- * 4. Creates the new uncollapsed child cells and updates the adjacency map.
+ * 4. Creates the new uncollapsed child cells in the CellStore and wires them to their parents.
  *
  * The resulting uncollapsed cells are appended to the active WFC frontier.
  */
@@ -26,24 +28,29 @@ public class Expand {
     /**
      * Allocates expansion slots for collapsed cells and creates new neighbors accordingly.
      *
-     * @param collapsedCells         list of collapsed cells that will receive new neighbors
+     * @param collapsedCells         ids of collapsed cells that will receive new neighbors
      * @param allowedExpansionCount  total number of new uncollapsed cells allowed
-     * @param centerDegrees          map from each collapsed cell → its center node degree
-     * @param allPatternIds          set of all pattern IDs (used to initialize new cells)
-     * @param uncollapsedCells       output list where created cells will be added
-     * @param cellAdjacency          bidirectional adjacency map (updated in-place)
+     * @param centerDegrees          center node degree of each collapsed cell, parallel to collapsedCells
+     * @param allPatterns            domain of all pattern indices (copied into new cells)
+     * @param cells                  cell store where children are created and wired (updated in-place)
+     * @param uncollapsedCells       frontier where created cells will be added
      */
-    public static void expand(List<Cell> collapsedCells,
+    public static void expand(int[] collapsedCells,
                               int allowedExpansionCount,
-                              Map<Cell, Integer> centerDegrees,
-                              Set<Integer> allPatternIds,
-                              List<Cell> uncollapsedCells,
-                              Map<Cell, List<Cell>> cellAdjacency) {
+                              int[] centerDegrees,
+                              Domain allPatterns,
+                              CellStore cells,
+                              Frontier uncollapsedCells) {
+        if (centerDegrees.length != collapsedCells.length) {
+            throw new IllegalArgumentException("centerDegrees must be parallel to collapsedCells");
+        }
+        int n = collapsedCells.length;
 
         // 1) Compute total expansion demand: sum of degrees of all collapsed cells
-        int totalDemand = collapsedCells.stream()
-                .mapToInt(c -> centerDegrees.getOrDefault(c, 0))
-                .sum();
+        int totalDemand = 0;
+        for (int degree : centerDegrees) {
+            totalDemand += degree;
+        }
         // If there's no demand or no budget, nothing to do
         if (totalDemand == 0 || allowedExpansionCount <= 0) {
             return;
@@ -52,10 +59,10 @@ public class Expand {
         // 2) Proportional base allocation and cap enforcement
         //    For each cell, compute its share of the budget,
         //    floor to an integer (min 1), then cap to ⌈degree/2⌉
-        Map<Cell, Integer> baseAlloc = new HashMap<>();
-        Map<Cell, Double> remainders = new HashMap<>();
-        for (Cell cell : collapsedCells) {
-            int degree = centerDegrees.getOrDefault(cell, 0);
+        int[] baseAlloc = new int[n];
+        double[] remainders = new double[n];
+        for (int i = 0; i < n; i++) {
+            int degree = centerDegrees[i];
             // Floating-point share relative to total demand
             double share = allowedExpansionCount * (degree / (double) totalDemand);
             // Base allocation: at least 1, at most floor(share)
@@ -63,55 +70,49 @@ public class Expand {
             // Cap per cell to ⌈degree/2⌉
             int cap = (degree + 1) / 2;
             base = Math.min(base, cap);
-            baseAlloc.put(cell, base);
+            baseAlloc[i] = base;
             // Store fractional part for largest-remainder step
-            remainders.put(cell, share - base);
+            remainders[i] = share - base;
         }
 
         // 3) Largest-remainder distribution of any leftover slots
         //    Calculate how many slots remain after base allocation
-        int usedSlots = baseAlloc.values().stream()
-                .mapToInt(Integer::intValue)
-                .sum();
+        int usedSlots = 0;
+        for (int base : baseAlloc) {
+            usedSlots += base;
+        }
         int surplus = Math.max(0, allowedExpansionCount - usedSlots);
 
         if (surplus > 0) {
-            // Sort cells by descending fractional remainder
-            List<Cell> sortedByRemainder = new ArrayList<>(collapsedCells);
-            sortedByRemainder.sort(
-                    Comparator.comparingDouble(remainders::get).reversed()
-            );
+            // Sort cells by descending fractional remainder (stable, ties keep input order)
+            List<Integer> sortedByRemainder = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                sortedByRemainder.add(i);
+            }
+            sortedByRemainder.sort((a, b) -> Double.compare(remainders[b], remainders[a]));
 
             // Distribute one extra slot to each, up to the cap, until surplus is exhausted
-            for (Cell cell : sortedByRemainder) {
+            for (int i : sortedByRemainder) {
                 if (surplus == 0) break;
-                int current = baseAlloc.get(cell);
-                int cap = (centerDegrees.getOrDefault(cell, 0) + 1) / 2;
-                if (current < cap) {
-                    baseAlloc.put(cell, current + 1);
+                int cap = (centerDegrees[i] + 1) / 2;
+                if (baseAlloc[i] < cap) {
+                    baseAlloc[i]++;
                     surplus--;
                 }
             }
         }
 
         // 4) Expansion: create uncollapsed child cells and wire them to parents
-        for (Cell parent : collapsedCells) {
-            int slots = baseAlloc.getOrDefault(parent, 0);
-            // Ensure parent has an adjacency list
-            List<Cell> parentNeighbors =
-                    cellAdjacency.computeIfAbsent(parent, k -> new ArrayList<>());
-
+        for (int i = 0; i < n; i++) {
+            int parent = collapsedCells[i];
             // For each allocated slot, create a new cell and connect it bidirectionally
-            for (int i = 0; i < slots; i++) {
+            for (int slot = 0; slot < baseAlloc[i]; slot++) {
                 // Initialize child with all possible patterns
-                Cell child = new Cell(allPatternIds);
+                int child = cells.addCell(allPatterns);
                 // Add to uncollapsed frontier
                 uncollapsedCells.add(child);
-                // Connect parent -> child
-                parentNeighbors.add(child);
-                // Connect child -> parent
-                cellAdjacency.computeIfAbsent(child, k -> new ArrayList<>())
-                        .add(parent);
+                // Connect parent <-> child
+                cells.addEdge(parent, child);
             }
         }
     }
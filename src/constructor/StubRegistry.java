@@ -0,0 +1,153 @@
+package constructor;
+
+import wfc.CellStore;
+
+import java.util.Arrays;
+
+/**
+ * Indexes collapsed cells that still have open stubs, bucketed by their collapsed pattern index.
+ *
+ * Candidate generation in {@link Connect} only needs partners whose pattern is in the
+ * radius=1 compatibility set of the current cell. Bucketing by pattern lets each cell
+ * visit exactly those buckets instead of scanning every other stub cell.
+ *
+ * Cells are ranked by their position in the collapse order of the store, which never
+ * changes, so every unordered pair can be produced exactly once by only pairing a cell
+ * with partners of higher rank.
+ *
+ * The registry lives as long as its store. {@link #update(int)} lists a cell once it has
+ * stubs and drops it once it has none; dropped cells stay in their bucket until that
+ * bucket is compacted, which happens once they make up half of it, and read as having
+ * no stubs until then.
+ */
+class StubRegistry {
+    private static final byte NEVER_LISTED = 0;
+    private static final byte LISTED = 1;
+    private static final byte DROPPED = 2;
+
+    private final CellStore cells;
+
+    /** bucket[p][0 … bucketSize[p]) = cells of pattern p in rank order (null until the first one) */
+    private final int[][] bucket;
+    private final int[] bucketSize;
+
+    /** Entries of each bucket whose cell has been dropped */
+    private final int[] droppedCount;
+
+    /** state[cell]: NEVER_LISTED, LISTED or DROPPED */
+    private byte[] state = new byte[16];
+
+    /**
+     * @param cells         cell store whose collapsed cells are registered
+     * @param patternCount  number of pattern indices P
+     */
+    StubRegistry(CellStore cells, int patternCount) {
+        this.cells = cells;
+        this.bucket = new int[patternCount][];
+        this.bucketSize = new int[patternCount];
+        this.droppedCount = new int[patternCount];
+    }
+
+    /**
+     * Lists a collapsed cell if it has open stubs and drops it if it has none. Must be
+     * called for every collapsed cell whose collapse, degree or degree target changed.
+     *
+     * @param cell  a collapsed cell
+     */
+    void update(int cell) {
+        if (cell >= state.length) {
+            state = Arrays.copyOf(state, Math.max(cell + 1, state.length * 2));
+        }
+        boolean open = cells.openStubs(cell) > 0;
+        if (open == (state[cell] == LISTED)) return;
+
+        int p = cells.collapsedPattern(cell);
+        if (!open) {
+            state[cell] = DROPPED;
+            if (++droppedCount[p] * 2 > bucketSize[p]) {
+                compact(p);
+            }
+            return;
+        }
+
+        // A cell listed again must not appear twice
+        if (state[cell] == DROPPED) {
+            compact(p);
+        }
+        state[cell] = LISTED;
+        insert(p, cell);
+    }
+
+    /** Inserts a cell into its bucket at its rank; cells are listed in collapse order, so this is an append. */
+    private void insert(int p, int cell) {
+        int[] list = bucket[p];
+        int n = bucketSize[p];
+        if (list == null) {
+            list = bucket[p] = new int[4];
+        } else if (n == list.length) {
+            list = bucket[p] = Arrays.copyOf(list, n * 2);
+        }
+        int rank = rank(cell);
+        int at = n;
+        while (at > 0 && rank(list[at - 1]) > rank) {
+            at--;
+        }
+        System.arraycopy(list, at, list, at + 1, n - at);
+        list[at] = cell;
+        bucketSize[p] = n + 1;
+    }
+
+    /** Removes the dropped cells from a bucket, keeping rank order. */
+    private void compact(int p) {
+        int[] list = bucket[p];
+        int kept = 0;
+        for (int k = 0; k < bucketSize[p]; k++) {
+            if (state[list[k]] == LISTED) {
+                list[kept++] = list[k];
+            }
+        }
+        bucketSize[p] = kept;
+        droppedCount[p] = 0;
+    }
+
+    /**
+     * @param  patternId  collapsed pattern index
+     * @return            number of entries in that pattern's bucket, dropped ones included
+     */
+    int bucketSize(int patternId) {
+        return bucketSize[patternId];
+    }
+
+    /**
+     * @param  patternId  collapsed pattern index
+     * @param  k          position in [0, bucketSize(patternId))
+     * @return            the cell at that position; buckets list cells in rank order
+     */
+    int bucketCell(int patternId, int k) {
+        return bucket[patternId][k];
+    }
+
+    /**
+     * @param  cell  a collapsed cell id
+     * @return       its rank: its position in collapse order
+     */
+    int rank(int cell) {
+        return cells.settledIndex(cell);
+    }
+
+    /**
+     * @param  cell  any cell id
+     * @return       true if the cell is listed, i.e. had open stubs at its last update
+     */
+    boolean isListed(int cell) {
+        return cell < state.length && state[cell] == LISTED;
+    }
+
+    /**
+     * @param  cell  any cell id
+     * @return       number of remaining stubs (0 if the cell is not listed)
+     */
+    int stubs(int cell) {
+        return isListed(cell) ? cells.openStubs(cell) : 0;
+    }
+}
@@ -0,0 +1,117 @@
+package helper;
+
+import java.util.Arrays;
+
+/**
+ * Reusable breadth-first search to a bounded depth over a graph in compressed sparse row
+ * form: the neighbors of vertex v are {@code targets[offsets[v]] … targets[offsets[v+1]-1]},
+ * for dense vertex indices 0 … offsets.length-2.
+ *
+ * A search allocates nothing once the scratch arrays have grown to the graph: the queue
+ * and visit depths are plain int arrays, and visited vertices are recognized by an epoch
+ * stamp that is bumped per search instead of clearing a set. The visit order of the last
+ * search stays readable until the next one starts.
+ *
+ * Instances are not thread-safe; {@link #forCurrentThread()} hands every thread its own.
+ */
+public final class BoundedBfs {
+    private static final ThreadLocal<BoundedBfs> SCRATCH = ThreadLocal.withInitial(BoundedBfs::new);
+
+    /** Visit order of the last search and the depth of each visit */
+    private int[] order = new int[16];
+    private int[] orderDepth = new int[16];
+    private int count;
+
+    /** Per vertex: stamp of the last search that reached it, and its depth in that search */
+    private int[] stampOf = new int[0];
+    private int[] depthOf = new int[0];
+    private int stamp;
+
+    /**
+     * @return the calling thread's scratch instance
+     */
+    public static BoundedBfs forCurrentThread() {
+        return SCRATCH.get();
+    }
+
+    /**
+     * Searches from source, visiting every vertex within maxDepth hops exactly once in
+     * breadth-first order (neighbors in CSR order).
+     *
+     * @param  offsets   CSR row offsets, one more than the vertex count
+     * @param  targets   CSR neighbor indices
+     * @param  source    start vertex
+     * @param  maxDepth  largest depth to visit (≥ 0)
+     * @return           number of visited vertices, source included
+     */
+    public int run(int[] offsets, int[] targets, int source, int maxDepth) {
+        int n = offsets.length - 1;
+        if (stampOf.length < n) {
+            stampOf = Arrays.copyOf(stampOf, n);
+            depthOf = Arrays.copyOf(depthOf, n);
+        }
+        if (++stamp == 0) {
+            // stamp wrapped around: clear stale marks once
+            Arrays.fill(stampOf, 0);
+            stamp = 1;
+        }
+
+        count = 0;
+        visit(source, 0);
+        for (int head = 0; head < count; head++) {
+            int v = order[head];
+            int d = orderDepth[head];
+            if (d >= maxDepth) continue;
+            for (int e = offsets[v], end = offsets[v + 1]; e < end; e++) {
+                int w = targets[e];
+                if (stampOf[w] != stamp) {
+                    visit(w, d + 1);
+                }
+            }
+        }
+        return count;
+    }
+
+    private void visit(int v, int d) {
+        if (count == order.length) {
+            order = Arrays.copyOf(order, count * 2);
+            orderDepth = Arrays.copyOf(orderDepth, count * 2);
+        }
+        order[count] = v;
+        orderDepth[count] = d;
+        count++;
+        stampOf[v] = stamp;
+        depthOf[v] = d;
+    }
+
+    /**
+     * @return number of vertices visited by the last search
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @param  i  visit position in [0, count())
+     * @return    the i-th visited vertex
+     */
+    public int vertex(int i) {
+        return order[i];
+    }
+
+    /**
+     * @param  i  visit position in [0, count())
+     * @return    depth of the i-th visited vertex (non-decreasing in i)
+     */
+    public int depth(int i) {
+        return orderDepth[i];
+    }
+
+    /**
+     * @param  v  vertex index
+     * @return    depth of v in the last search, or -1 if it was not reached
+     */
+    public int depthOf(int v) {
+        return v < stampOf.length && stampOf[v] == stamp ? depthOf[v] : -1;
+    }
+}
@@ -1,6 +1,6 @@
 package helper;
 
-import wfc.Cell;
+import wfc.CellStore;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -12,7 +12,7 @@ import java.util.*;
  * Writes out a generated graph into an edge‐list file and a label file.
  *
  * Provides two export APIs: one for integer‐indexed adjacency lists,
- * and one for direct Cell‐based graphs.
+ * and one for a generated CellStore.
  */
 public class Exporter {
 
@@ -21,55 +21,58 @@ public class Exporter {
      *
      * Writes edges and labels to the given paths using zero‐based indices.
      *
-     * @param  cells       list of all Cells in the final graph, in index order
+     * @param  labels      label of every node, in index order
      * @param  adjacency   adjacency list where adjacency.get(u) contains neighbors of u
      * @param  edgesPath   filesystem path to write the edge‐list (u v per line)
      * @param  labelsPath  filesystem path to write the label‐list (index label per line)
      * @throws IOException if an I/O error occurs while writing either file
      */
-    public static void export(List<Cell> cells,
+    public static void export(int[] labels,
                               List<Set<Integer>> adjacency,
                               Path edgesPath,
                               Path labelsPath) throws IOException {
         writeEdges(adjacency, edgesPath);
-        writeLabels(cells, labelsPath);
+        writeLabels(labels, labelsPath);
     }
 
     /**
-     * Exports a graph directly from Cell objects and their adjacency map.
+     * Exports the collapsed cells of a CellStore and the edges among them.
      *
-     * Builds a stable integer ID for each Cell based on iteration order,
-     * constructs an integer‐indexed adjacency list, and delegates to the old API.
+     * Numbers nodes by collapse order and writes each edge once, straight from the
+     * store's neighbor arrays (the store never holds duplicate edges or self-loops).
+     * Cells that never collapsed are left out, together with their edges.
      *
-     * @param  cells         collection of all Cells in the final graph
-     * @param  adjacencyMap  map from each Cell to its neighboring Cells
+     * @param  cells         generated cells
      * @param  edgesPath     filesystem path to write the edge‐list (u v per line)
      * @param  labelsPath    filesystem path to write the label‐list (index label per line)
      * @throws IOException   if an I/O error occurs while writing either file
      */
-    public static void export(Collection<Cell> cells,
-                              Map<Cell,List<Cell>> adjacencyMap,
+    public static void export(CellStore cells,
                               Path edgesPath,
                               Path labelsPath) throws IOException {
-        List<Cell> cellList = new ArrayList<>(cells);
-        Map<Cell,Integer> idMap = new IdentityHashMap<>();
-        for (int i = 0; i < cellList.size(); i++) {
-            idMap.put(cellList.get(i), i);
+        int n = cells.settledCount();
+        int[] idOf = new int[cells.size()];
+        Arrays.fill(idOf, -1);
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            int cell = cells.settled(i);
+            idOf[cell] = i;
+            labels[i] = cells.centerLabel(cell);
         }
 
-        List<Set<Integer>> adjList = new ArrayList<>(cellList.size());
-        for (Cell c : cellList) {
-            Set<Integer> nbrIds = new LinkedHashSet<>();
-            for (Cell nbr : adjacencyMap.getOrDefault(c, Collections.emptyList())) {
-                Integer nid = idMap.get(nbr);
-                if (nid != null && !nid.equals(idMap.get(c))) {
-                    nbrIds.add(nid);
+        try (BufferedWriter w = Files.newBufferedWriter(edgesPath)) {
+            for (int i = 0; i < n; i++) {
+                int cell = cells.settled(i);
+                for (int k = 0, deg = cells.degree(cell); k < deg; k++) {
+                    int nid = idOf[cells.neighbor(cell, k)];
+                    if (nid > i) {
+                        w.write(i + " " + nid);
+                        w.newLine();
+                    }
                 }
             }
-            adjList.add(nbrIds);
         }
-
-        export(cellList, adjList, edgesPath, labelsPath);
+        writeLabels(labels, labelsPath);
     }
 
     // ------------------- internal helpers -------------------
@@ -98,27 +101,17 @@ public class Exporter {
     }
 
     /**
-     * Writes node labels for each Cell index.
+     * Writes the label of each node index.
      *
-     * Validates that each Cell is collapsed before writing;
-     * throws IllegalStateException if any Cell remains uncollapsed.
-     *
-     * @param  cells       list of Cells in index order
+     * @param  labels      label of every node, in index order
      * @param  labelsPath  filesystem path to write the label‐list
-     * @throws IOException              if an I/O error occurs while writing the file
-     * @throws IllegalStateException    if any Cell is not fully collapsed
+     * @throws IOException if an I/O error occurs while writing the file
      */
-    private static void writeLabels(List<Cell> cells,
+    private static void writeLabels(int[] labels,
                                     Path labelsPath) throws IOException {
         try (BufferedWriter w = Files.newBufferedWriter(labelsPath)) {
-            for (int i = 0; i < cells.size(); i++) {
-                Cell c = cells.get(i);
-                if (!c.isCollapsed()) {
-                    throw new IllegalStateException(
-                            "Cannot export: cell " + i + " is still uncollapsed"
-                    );
-                }
-                w.write(i + " " + c.getCenterLabel());
+            for (int i = 0; i < labels.length; i++) {
+                w.write(i + " " + labels[i]);
                 w.newLine();
             }
         }
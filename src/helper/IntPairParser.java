@@ -0,0 +1,239 @@
+package helper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Parses text files of integer pairs ("u v" or "id label" per line) straight from a
+ * memory-mapped file, without decoding lines into Strings.
+ *
+ * The accepted syntax is that of the line-based reader it replaces:
+ * - everything from the first {@code #} or {@code //} on a line is a comment
+ * - tokens are separated by spaces, tabs, form feeds or vertical tabs; lines end at
+ *   {@code \n}, {@code \r} or {@code \r\n}
+ * - lines with fewer than two tokens are skipped, whatever they contain
+ * - the first two tokens must be decimal ints with an optional sign, otherwise a
+ *   NumberFormatException is thrown; further tokens are ignored
+ *
+ * The file is split into chunks of about CHUNK_BYTES that each start at a line start, so
+ * files larger than one mapping can be read and the chunks can be parsed concurrently.
+ * Pairs are returned in file order either way.
+ */
+final class IntPairParser {
+    /** Nominal chunk size; chunks are extended to the end of the line they stop in */
+    private static final int CHUNK_BYTES = 64 << 20;
+
+    private IntPairParser() { }
+
+    /**
+     * @param  path      file to parse
+     * @param  parallel  parse chunks concurrently
+     * @return           the pairs in file order, interleaved: first0, second0, first1, second1, …
+     * @throws IOException           if the file cannot be read
+     * @throws NumberFormatException if one of the first two tokens of a line is not an int
+     */
+    static int[] parse(Path path, boolean parallel) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 1) Cut the file at line starts
+            long[] bounds = chunkBounds(channel);
+            int chunks = bounds.length - 1;
+
+            // 2) Parse every chunk from its own mapping
+            int[][] parts = new int[chunks][];
+            IntStream range = IntStream.range(0, chunks);
+            (parallel ? range.parallel() : range).forEach(c -> {
+                try {
+                    parts[c] = parseChunk(channel.map(FileChannel.MapMode.READ_ONLY,
+                            bounds[c], bounds[c + 1] - bounds[c]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            // 3) Concatenate in file order
+            int total = 0;
+            for (int[] part : parts) {
+                total += part.length;
+            }
+            int[] pairs = new int[total];
+            int at = 0;
+            for (int[] part : parts) {
+                System.arraycopy(part, 0, pairs, at, part.length);
+                at += part.length;
+            }
+            return pairs;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return chunk offsets: chunk c is [bounds[c], bounds[c+1]), each starting at a line start
+     */
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long next = CHUNK_BYTES;
+        while (next < size) {
+            // advance to just after the next line break at or beyond the nominal cut
+            long cut = -1;
+            for (long pos = next; pos < size && cut < 0; pos += probe.limit()) {
+                probe.clear();
+                channel.read(probe, pos);
+                probe.flip();
+                for (int i = 0; i < probe.limit(); i++) {
+                    byte b = probe.get(i);
+                    if (b == '\n' || b == '\r') {
+                        cut = pos + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (cut < 0 || cut >= size) break;
+            if (cut - bounds.get(bounds.size() - 1) > Integer.MAX_VALUE) {
+                throw new IOException("Line longer than 2 GB at offset " + next);
+            }
+            bounds.add(cut);
+            next = cut + CHUNK_BYTES;
+        }
+        if (size - bounds.get(bounds.size() - 1) > Integer.MAX_VALUE) {
+            throw new IOException("Line longer than 2 GB at offset " + bounds.get(bounds.size() - 1));
+        }
+        bounds.add(size);
+
+        long[] out = new long[bounds.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = bounds.get(i);
+        }
+        return out;
+    }
+
+    /**
+     * Parses whole lines from a mapped chunk in a single pass: each byte is read once,
+     * and the first two tokens of a line are converted to ints while they are scanned.
+     *
+     * @return the chunk's pairs, interleaved
+     */
+    private static int[] parseChunk(MappedByteBuffer buf) {
+        int[] out = new int[64];
+        int n = 0;
+        int end = buf.limit();
+        int pos = 0;
+        while (pos < end) {
+            // One line: the first two tokens, whether each is a valid int, and where they start
+            int tokens = 0;
+            long first = 0, second = 0;
+            int firstStart = -1, secondStart = -1;
+
+            while (pos < end) {
+                byte b = buf.get(pos);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                if (isSpace(b)) {
+                    pos++;
+                    continue;
+                }
+                if (isCommentAt(buf, pos, end)) {
+                    while (pos < end && buf.get(pos) != '\n' && buf.get(pos) != '\r') {
+                        pos++;
+                    }
+                    break;
+                }
+
+                // A token runs to the next separator, line break or comment marker
+                int start = pos;
+                boolean negative = b == '-';
+                if (b == '-' || b == '+') {
+                    pos++;
+                }
+                long value = 0;
+                boolean valid = pos < end && isDigit(buf.get(pos));
+                for (; pos < end; pos++) {
+                    b = buf.get(pos);
+                    if (isDigit(b)) {
+                        // stop accumulating once out of int range; the token is invalid anyway
+                        if (value <= Integer.MAX_VALUE + 1L) {
+                            value = value * 10 + (b - '0');
+                        }
+                    } else if (isSpace(b) || b == '\n' || b == '\r' || isCommentAt(buf, pos, end)) {
+                        break;
+                    } else {
+                        valid = false;
+                    }
+                }
+                value = negative ? -value : value;
+                valid &= value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+
+                if (tokens == 0) {
+                    firstStart = start;
+                    first = valid ? value : Long.MIN_VALUE;
+                } else if (tokens == 1) {
+                    secondStart = start;
+                    second = valid ? value : Long.MIN_VALUE;
+                }
+                tokens++;
+            }
+            // consume the line break
+            if (pos < end) {
+                pos++;
+            }
+
+            if (tokens < 2) continue;  // skip malformed lines
+            if (first == Long.MIN_VALUE) throw invalid(buf, firstStart, end);
+            if (second == Long.MIN_VALUE) throw invalid(buf, secondStart, end);
+            if (n + 2 > out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            out[n++] = (int) first;
+            out[n++] = (int) second;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** @return true if a {@code #} or {@code //} comment starts at pos */
+    private static boolean isCommentAt(ByteBuffer buf, int pos, int end) {
+        byte b = buf.get(pos);
+        return b == '#' || (b == '/' && pos + 1 < end && buf.get(pos + 1) == '/');
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    /** @return end of the token starting at start */
+    private static int tokenEnd(ByteBuffer buf, int start, int end) {
+        int pos = start;
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (isSpace(b) || b == '\n' || b == '\r' || isCommentAt(buf, pos, end)) {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /** Builds the same message as Integer.parseInt; only reached on malformed input. */
+    private static NumberFormatException invalid(ByteBuffer buf, int start, int end) {
+        byte[] token = new byte[tokenEnd(buf, start, end) - start];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = buf.get(start + i);
+        }
+        return new NumberFormatException("For input string: \"" + new String(token, StandardCharsets.UTF_8) + "\"");
+    }
+}
@@ -0,0 +1,139 @@
+package helper;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive {@code long} keys.
+ *
+ * Every distinct key is numbered in insertion order (0, 1, 2, …), so the set doubles as
+ * a dense index: callers can keep per-key data in plain arrays addressed by
+ * {@link #indexOf(long)} instead of a boxed {@code Map<Long, …>}.
+ */
+public final class LongHashSet {
+    private static final int EMPTY = -1;
+
+    /** Slot table: key, and the ordinal stored in that slot (EMPTY if unused). */
+    private long[] slotKeys;
+    private int[] slotOrdinals;
+    private int mask;
+
+    /** Keys in insertion order; keys[i] has ordinal i. */
+    private long[] keys;
+    private int size;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of keys the set should hold without resizing
+     */
+    public LongHashSet(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must be ≥ 0");
+        }
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+        this.keys = new long[Math.max(4, expectedSize)];
+    }
+
+    /**
+     * Adds a key if it is not present yet.
+     *
+     * @param  key  key to add
+     * @return      the ordinal of the key (new or existing)
+     */
+    public int add(long key) {
+        int slot = slotOf(key);
+        if (slotOrdinals[slot] != EMPTY) {
+            return slotOrdinals[slot];
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        slotKeys[slot] = key;
+        slotOrdinals[slot] = size;
+        size++;
+        if (size * 2 > slotKeys.length) {
+            rehash(slotKeys.length * 2);
+        }
+        return size - 1;
+    }
+
+    /**
+     * @param  key  key to look up
+     * @return      the ordinal of the key, or -1 if it is absent
+     */
+    public int indexOf(long key) {
+        return slotOrdinals[slotOf(key)];
+    }
+
+    /**
+     * @param  key  key to look up
+     * @return      true if the key is present
+     */
+    public boolean contains(long key) {
+        return indexOf(key) != EMPTY;
+    }
+
+    /**
+     * @param  ordinal  ordinal in [0, size)
+     * @return          the key with that ordinal
+     */
+    public long get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + " out of range [0, " + size + ")");
+        }
+        return keys[ordinal];
+    }
+
+    /**
+     * @return number of distinct keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys in insertion order
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(keys, size);
+    }
+
+    /** Linear probing: the slot holding the key, or the empty slot where it belongs. */
+    private int slotOf(long key) {
+        int slot = mix(key) & mask;
+        while (slotOrdinals[slot] != EMPTY && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        allocate(capacity);
+        for (int i = 0; i < size; i++) {
+            int slot = slotOf(keys[i]);
+            slotKeys[slot] = keys[i];
+            slotOrdinals[slot] = i;
+        }
+    }
+
+    private void allocate(int capacity) {
+        slotKeys = new long[capacity];
+        slotOrdinals = new int[capacity];
+        Arrays.fill(slotOrdinals, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /** MurmurHash3 64-bit finalizer, folded to an int. */
+    private static int mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return (int) k;
+    }
+}
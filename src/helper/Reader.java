@@ -1,15 +1,18 @@
 package helper;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.List;
 
 /**
  * Loads graph structure and node labels from text files into a Graph instance.
  *
  * This class provides static methods to read edge lists and label lists,
  * stripping comments and ignoring empty or malformed lines.
+ *
+ * Files are parsed by {@link IntPairParser} directly from a memory mapping, without
+ * building a String per line. Large files can be parsed in parallel chunks; the pairs
+ * are always applied to the graph in file order, so the resulting Graph (including the
+ * order of every node's neighbors) is the same in both modes.
  */
 public class Reader {
 
@@ -24,12 +27,25 @@ public class Reader {
      * @throws IOException if an I/O error occurs reading either file
      */
     public static Graph load(Path edgesPath, Path labelsPath) throws IOException {
+        return load(edgesPath, labelsPath, false);
+    }
+
+    /**
+     * Same as {@link #load(Path, Path)}, optionally parsing each file in parallel chunks.
+     *
+     * @param  edgesPath   filesystem path to the edge-list file (u v per line), or null to skip
+     * @param  labelsPath  filesystem path to the label-list file (id label per line), or null to skip
+     * @param  parallel    parse the files on all cores
+     * @return             a Graph containing all nodes, edges, and labels read
+     * @throws IOException if an I/O error occurs reading either file
+     */
+    public static Graph load(Path edgesPath, Path labelsPath, boolean parallel) throws IOException {
         Graph g = new Graph();
         if (edgesPath != null) {
-            readEdges(edgesPath, g);
+            readEdges(edgesPath, g, parallel);
         }
         if (labelsPath != null) {
-            readLabels(labelsPath, g);
+            readLabels(labelsPath, g, parallel);
         }
         return g;
     }
@@ -45,19 +61,21 @@ public class Reader {
      * @throws IOException if an I/O error occurs while reading the file
      */
     public static void readEdges(Path path, Graph g) throws IOException {
-        try (BufferedReader br = Files.newBufferedReader(path)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = stripComments(line).trim();
-                if (line.isEmpty()) continue;
-
-                String[] p = line.split("\\s+");
-                if (p.length < 2) continue;  // skip malformed lines
+        readEdges(path, g, false);
+    }
 
-                int u = Integer.parseInt(p[0]);
-                int v = Integer.parseInt(p[1]);
-                g.addEdge(u, v);
-            }
+    /**
+     * Same as {@link #readEdges(Path, Graph)}, optionally parsing the file in parallel chunks.
+     *
+     * @param  path      filesystem path to the edge-list file
+     * @param  g         the Graph to populate with edges
+     * @param  parallel  parse the file on all cores
+     * @throws IOException if an I/O error occurs while reading the file
+     */
+    public static void readEdges(Path path, Graph g, boolean parallel) throws IOException {
+        int[] pairs = IntPairParser.parse(path, parallel);
+        for (int i = 0; i < pairs.length; i += 2) {
+            g.addEdge(pairs[i], pairs[i + 1]);
         }
     }
 
@@ -72,42 +90,21 @@ public class Reader {
      * @throws IOException if an I/O error occurs while reading the file
      */
     public static void readLabels(Path path, Graph g) throws IOException {
-        try (BufferedReader br = Files.newBufferedReader(path)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = stripComments(line).trim();
-                if (line.isEmpty()) continue;
-
-                String[] p = line.split("\\s+");
-                if (p.length < 2) continue;  // skip malformed lines
-
-                int id = Integer.parseInt(p[0]);
-                int label = Integer.parseInt(p[1]);
-                g.setLabel(id, label);
-            }
-        }
+        readLabels(path, g, false);
     }
 
     /**
-     * Removes any text following a '#' or '//' comment marker.
+     * Same as {@link #readLabels(Path, Graph)}, optionally parsing the file in parallel chunks.
      *
-     * Finds the earliest occurrence of either marker and returns the substring
-     * before it; otherwise returns the original string.
-     *
-     * @param  s  the input line potentially containing comments
-     * @return    the line content up to (but not including) any comment marker
+     * @param  path      filesystem path to the label-list file
+     * @param  g         the Graph to populate with labels
+     * @param  parallel  parse the file on all cores
+     * @throws IOException if an I/O error occurs while reading the file
      */
-    private static String stripComments(String s) {
-        int iHash = s.indexOf('#');
-        int iSl   = s.indexOf("//");
-        int i;
-        if (iHash >= 0 && iSl >= 0) {
-            i = Math.min(iHash, iSl);
-        } else if (iHash >= 0) {
-            i = iHash;
-        } else {
-            i = iSl;
+    public static void readLabels(Path path, Graph g, boolean parallel) throws IOException {
+        int[] pairs = IntPairParser.parse(path, parallel);
+        for (int i = 0; i < pairs.length; i += 2) {
+            g.setLabel(pairs[i], pairs[i + 1]);
         }
-        return (i >= 0) ? s.substring(0, i) : s;
     }
 }
@@ -0,0 +1,122 @@
+package helper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Records which graph indices of a batch have been completed, one index per line.
+ *
+ * Indices are appended as they finish, in whatever order that happens, so a run that is
+ * interrupted only has to redo the indices that are missing from the file.
+ *
+ * An index counts as recorded only once its line terminator is on disk: the terminator is
+ * the last byte of each append, so a line cut off by a crash ({@code 12} left of
+ * {@code 123}) has none. Opening the ledger ignores such a tail and truncates it away, so
+ * the next append starts on a fresh line instead of completing it into a different index.
+ *
+ * The ledger can be shared by several worker threads; {@link #markDone(int)} appends
+ * one complete line per call under a lock.
+ */
+public final class ResumeLedger {
+    private final Path file;
+    private final Set<Integer> done = new HashSet<>();
+
+    private ResumeLedger(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the ledger at the given path, reading every index already recorded.
+     *
+     * A legacy single-integer resume file (holding the next index to process, with all
+     * lower indices done) is converted: its indices are written to the ledger and the
+     * legacy file is deleted.
+     *
+     * @param  file        ledger path (need not exist yet)
+     * @param  legacyFile  path of the old "next index" resume file (need not exist)
+     * @param  firstIndex  lowest index of the batch
+     * @return             the opened ledger
+     * @throws IOException if either file cannot be read, or the migration cannot be written
+     */
+    public static ResumeLedger open(Path file, Path legacyFile, int firstIndex) throws IOException {
+        Objects.requireNonNull(file, "file must not be null");
+        ResumeLedger ledger = new ResumeLedger(file);
+        if (Files.exists(file)) {
+            // 1) Only lines that end with a terminator were written completely
+            byte[] bytes = Files.readAllBytes(file);
+            int complete = bytes.length;
+            while (complete > 0 && bytes[complete - 1] != '\n') {
+                complete--;
+            }
+            for (String line : new String(bytes, 0, complete, StandardCharsets.UTF_8).split("\n")) {
+                try {
+                    ledger.done.add(Integer.parseInt(line.trim()));
+                } catch (NumberFormatException ignored) {
+                    // blank or foreign line: nothing is recorded by it
+                }
+            }
+
+            // 2) Drop a torn tail, so that appending cannot extend it into another index
+            if (complete < bytes.length) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(complete);
+                }
+            }
+        }
+
+        if (legacyFile != null && Files.exists(legacyFile)) {
+            List<String> lines = Files.readAllLines(legacyFile, StandardCharsets.UTF_8);
+            try {
+                int next = lines.isEmpty() ? firstIndex : Integer.parseInt(lines.get(0).trim());
+                for (int i = firstIndex; i < next; i++) {
+                    ledger.markDone(i);
+                }
+            } catch (NumberFormatException ignored) {
+                // unreadable legacy state: nothing is known to be done
+            }
+            Files.delete(legacyFile);
+        }
+        return ledger;
+    }
+
+    /**
+     * @param  index  graph index
+     * @return        true if the index was recorded as completed
+     */
+    public synchronized boolean isDone(int index) {
+        return done.contains(index);
+    }
+
+    /**
+     * Records an index as completed, appending it to the ledger file.
+     *
+     * @param  index  graph index that finished successfully
+     * @throws IOException if the ledger cannot be written
+     */
+    public synchronized void markDone(int index) throws IOException {
+        if (!done.add(index)) return;
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // one write, terminator last: the line only counts once it is complete
+        Files.write(file,
+                (index + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    }
+
+    /**
+     * Deletes the ledger file, e.g. once the whole batch has completed.
+     *
+     * @throws IOException if the file exists but cannot be deleted
+     */
+    public synchronized void delete() throws IOException {
+        Files.deleteIfExists(file);
+        done.clear();
+    }
+}
@@ -0,0 +1,249 @@
+package patterns;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Packed, per-radius compatibility tables over the dense pattern index.
+ *
+ * For every radius r in [1…maxRadius] and every pattern index p, the matrix holds one
+ * bit row of P bits whose set bits are the pattern indices observed at distance r from p
+ * during training. Rows are stored back to back in a single {@code long[]} per radius,
+ * so a lookup is an array offset plus a bit test and never boxes.
+ *
+ * The matrix is built once after training and shared by every consumer (constraint
+ * propagation, edge wiring and RA scoring), so each table exists in memory exactly once.
+ *
+ * A pattern may have no row at all at some radius: training only records a table entry
+ * for patterns whose ID was the representative ID of a pattern at that radius. Such
+ * patterns are reported by {@link #hasRow(int, int)} as absent and are compatible with
+ * nothing at that radius.
+ */
+public final class CompatibilityMatrix {
+    private final int patternCount;
+    private final int maxRadius;
+    private final int wordsPerRow;
+
+    /** rows[r-1][p * wordsPerRow + w] = word w of pattern p's row at radius r */
+    private final long[][] rows;
+
+    /** present[r-1] = bitset of patterns that have a row at radius r */
+    private final long[][] present;
+
+    /** degree[r-1][p] = number of set bits in pattern p's row at radius r */
+    private final int[][] degree;
+
+    private CompatibilityMatrix(int patternCount, int maxRadius) {
+        this.patternCount = patternCount;
+        this.maxRadius = maxRadius;
+        this.wordsPerRow = (patternCount + 63) >>> 6;
+        this.rows = new long[maxRadius][patternCount * wordsPerRow];
+        this.present = new long[maxRadius][wordsPerRow];
+        this.degree = new int[maxRadius][patternCount];
+    }
+
+    /**
+     * Packs compatibility tables keyed by original pattern IDs into bit rows over the
+     * dense pattern index. IDs that are not part of the index are dropped, since no cell
+     * can ever hold such a pattern.
+     *
+     * @param  compatByRadius  radius → (patternId → compatible patternIds), as returned by
+     *                         {@link PatternCompatibility#computeCompatibilityByRadius}
+     * @param  index           dense numbering of the generation patterns
+     * @return                 the packed matrix
+     */
+    public static CompatibilityMatrix build(Map<Integer, Map<Integer, Set<Integer>>> compatByRadius,
+                                            PatternIndex index) {
+        Objects.requireNonNull(compatByRadius, "compatByRadius must not be null");
+        Objects.requireNonNull(index, "index must not be null");
+        int maxRadius = compatByRadius.keySet().stream()
+                .max(Integer::compareTo)
+                .orElse(0);
+
+        CompatibilityMatrix m = new CompatibilityMatrix(index.size(), maxRadius);
+        for (Map.Entry<Integer, Map<Integer, Set<Integer>>> byRadius : compatByRadius.entrySet()) {
+            int r = byRadius.getKey();
+            if (r < 1) continue;
+            for (Map.Entry<Integer, Set<Integer>> row : byRadius.getValue().entrySet()) {
+                int p = index.indexOf(row.getKey());
+                if (p < 0) continue;
+                m.markRow(r, p);
+                for (int id : row.getValue()) {
+                    int q = index.indexOf(id);
+                    if (q >= 0) {
+                        m.set(r, p, q);
+                    }
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Matrix without any rows, for builders that fill rows directly (see {@link PatternCatalog}).
+     *
+     * @param  patternCount  number of patterns P in the dense index
+     * @param  maxRadius     largest radius with a table
+     * @return               the empty matrix
+     */
+    static CompatibilityMatrix empty(int patternCount, int maxRadius) {
+        return new CompatibilityMatrix(patternCount, maxRadius);
+    }
+
+    /**
+     * Writes the matrix as P and maxRadius followed, per radius, by the presence bitset and
+     * the bit rows. Row degrees are not stored; they are recounted on reading.
+     *
+     * @param  out  destination
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(patternCount);
+        out.writeInt(maxRadius);
+        for (int r = 0; r < maxRadius; r++) {
+            for (long word : present[r]) {
+                out.writeLong(word);
+            }
+            for (long word : rows[r]) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Reads a matrix written by {@link #writeTo(DataOutput)}, advancing the buffer past it.
+     *
+     * @param  in  big-endian source positioned at the matrix
+     * @return     the matrix
+     * @throws IllegalArgumentException if the stored sizes are negative or exceed the buffer
+     */
+    public static CompatibilityMatrix readFrom(ByteBuffer in) {
+        int patternCount = in.getInt();
+        int maxRadius = in.getInt();
+        long words = ((patternCount + 63L) >>> 6) * (patternCount + 1L) * maxRadius;
+        if (patternCount < 0 || maxRadius < 0 || words * Long.BYTES > in.remaining()) {
+            throw new IllegalArgumentException("Matrix size " + patternCount + " x " + maxRadius
+                    + " does not fit the remaining data");
+        }
+        CompatibilityMatrix m = new CompatibilityMatrix(patternCount, maxRadius);
+        for (int r = 0; r < maxRadius; r++) {
+            for (long[] table : new long[][]{m.present[r], m.rows[r]}) {
+                in.asLongBuffer().get(table);
+                in.position(in.position() + table.length * Long.BYTES);
+            }
+            for (int p = 0; p < patternCount; p++) {
+                int bits = 0;
+                for (int w = 0, base = p * m.wordsPerRow; w < m.wordsPerRow; w++) {
+                    bits += Long.bitCount(m.rows[r][base + w]);
+                }
+                m.degree[r][p] = bits;
+            }
+        }
+        return m;
+    }
+
+    /** Records that p has a row at this radius (possibly without any set bits). */
+    void markRow(int radius, int p) {
+        present[radius - 1][p >>> 6] |= 1L << p;
+    }
+
+    /** Sets bit q of p's row at this radius. */
+    void set(int radius, int p, int q) {
+        long[] table = rows[radius - 1];
+        int w = p * wordsPerRow + (q >>> 6);
+        long bit = 1L << q;
+        if ((table[w] & bit) == 0) {
+            table[w] |= bit;
+            degree[radius - 1][p]++;
+        }
+    }
+
+    /**
+     * @return number of patterns P in the dense index
+     */
+    public int patternCount() {
+        return patternCount;
+    }
+
+    /**
+     * @return largest radius with a table (0 if there are none)
+     */
+    public int maxRadius() {
+        return maxRadius;
+    }
+
+    /**
+     * @return number of 64-bit words in each row
+     */
+    public int wordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * @param  radius  hop distance
+     * @param  p       pattern index
+     * @return         true if training recorded a compatibility row for p at this radius
+     */
+    public boolean hasRow(int radius, int p) {
+        if (radius < 1 || radius > maxRadius) return false;
+        return (present[radius - 1][p >>> 6] & (1L << p)) != 0;
+    }
+
+    /**
+     * @param  radius  hop distance
+     * @param  p       pattern index owning the row
+     * @param  q       pattern index to test
+     * @return         true if q was observed at distance radius from p
+     */
+    public boolean compatible(int radius, int p, int q) {
+        if (radius < 1 || radius > maxRadius) return false;
+        return (rows[radius - 1][p * wordsPerRow + (q >>> 6)] & (1L << q)) != 0;
+    }
+
+    /**
+     * @param  radius  hop distance
+     * @param  p       pattern index owning the row
+     * @param  w       word position in [0, wordsPerRow)
+     * @return         the w-th 64-bit word of p's row (0 for radii without a table)
+     */
+    public long word(int radius, int p, int w) {
+        if (radius < 1 || radius > maxRadius) return 0L;
+        return rows[radius - 1][p * wordsPerRow + w];
+    }
+
+    /**
+     * @param  radius  hop distance
+     * @param  p       pattern index
+     * @return         number of patterns compatible with p at this radius
+     */
+    public int degree(int radius, int p) {
+        if (radius < 1 || radius > maxRadius) return 0;
+        return degree[radius - 1][p];
+    }
+
+    /**
+     * Iterates the set bits of a row without allocation:
+     * {@code for (int q = m.nextCompatible(r, p, 0); q >= 0; q = m.nextCompatible(r, p, q + 1))}.
+     *
+     * @param  radius  hop distance
+     * @param  p       pattern index owning the row
+     * @param  from    first pattern index to consider
+     * @return         the smallest compatible index ≥ from, or -1 if there is none
+     */
+    public int nextCompatible(int radius, int p, int from) {
+        if (radius < 1 || radius > maxRadius || from >= patternCount) return -1;
+        long[] table = rows[radius - 1];
+        int base = p * wordsPerRow;
+        int w = from >>> 6;
+        long bits = table[base + w] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++w == wordsPerRow) return -1;
+            bits = table[base + w];
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package patterns;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -15,8 +16,8 @@ import java.util.stream.Collectors;
  * - occurrence frequency
  * - original degree of the center node
  *
- * Also computes a canonical form string to enable structural equivalence checks
- * (via equals() and hashCode()).
+ * Also computes a packed canonical form and its 128-bit fingerprint to enable
+ * structural equivalence checks (via equals() and hashCode()).
  */
 
 public class Pattern {
@@ -29,7 +30,12 @@ public class Pattern {
     private final Map<Integer, Integer> depths;          // nodeID -> distance from center
     private int frequency;
     private final int centerNodeDegree;
-    private final String canonicalForm;
+    private final int[] canonicalForm;
+    private final long fingerprintHi;
+    private final long fingerprintLo;
+
+    /** Maximum number of Weisfeiler–Lehman refinement rounds in the canonical form. */
+    static final int WL_ROUNDS = 2;
 
     /**
      * Constructs a Pattern encapsulating all details of an ego-network around a center node.
@@ -52,6 +58,22 @@ public class Pattern {
                    List<Set<Integer>> layers,
                    Map<Integer,Integer> depths,
                    int frequency, int centerNodeDegree) {
+        this(id, centerLabel, radius, labels, adjacency, layers, depths, frequency, centerNodeDegree, null);
+    }
+
+    /**
+     * Same as the public constructor, but accepts a Weisfeiler–Lehman refinement already
+     * computed by {@link #refine} for these maps (null to compute it here).
+     */
+    Pattern(int id,
+            int centerLabel,
+            int radius,
+            Map<Integer,Integer> labels,
+            Map<Integer,List<Integer>> adjacency,
+            List<Set<Integer>> layers,
+            Map<Integer,Integer> depths,
+            int frequency, int centerNodeDegree,
+            Refinement refinement) {
         this.id = id;
         this.centerLabel = centerLabel;
         this.radius = radius;
@@ -70,25 +92,33 @@ public class Pattern {
         this.layers = Collections.unmodifiableList(layersCopy);
         this.depths = Collections.unmodifiableMap(new LinkedHashMap<>(depths));
         this.frequency = frequency;
-        this.canonicalForm = computeCanonicalForm();
+        this.canonicalForm = computeCanonicalForm(refinement);
+        long[] fp = fingerprint(canonicalForm);
+        this.fingerprintHi = fp[0];
+        this.fingerprintLo = fp[1];
 
     }
 
     /**
-     * Computes the canonical form of this pattern using two rounds of
+     * Computes the canonical form of this pattern using up to two rounds of
      * Weisfeiler–Lehman color refinement followed by a deterministic
      * node ordering and adjacency normalization.
      *
+     * The form is a packed int[]:
+     * [nodeCount, rounds, then per node in canonical order: color, depth, label,
+     * neighborCount, sorted canonical neighbor indices…].
+     *
      * Preconditions:
      * - depths, labels, and adjacency must be non-null.
      * - depths must not be empty.
      * - labels.keySet() must equal depths.keySet().
      * - adjacency.keySet() must contain all of depths.keySet().
      *
-     * @return a string that uniquely represents this pattern’s structure
+     * @param  refinement  result of {@link #refine} for this pattern, or null to compute it
+     * @return an array that uniquely represents this pattern’s structure
      * @throws IllegalArgumentException if any precondition is violated
      */
-    private String computeCanonicalForm() {
+    private int[] computeCanonicalForm(Refinement refinement) {
         // 1) Validate inputs to fail fast on malformed state
         Objects.requireNonNull(depths,   "depth map must not be null");
         Objects.requireNonNull(labels,   "label map must not be null");
@@ -102,78 +132,258 @@ public class Pattern {
                     "Mismatch among depths, labels, and adjacency keys");
         }
 
-        // 2) Initial coloring: each node’s color = hash(depth, label)
-        Map<Integer,Integer> color = new LinkedHashMap<>();
+        // 2–3) Initial coloring and WL refinement
+        if (refinement == null) {
+            refinement = refine(depths, labels, adjacency, null, 0);
+        }
+        int n = refinement.depth.length;
+        int rounds = refinement.colors.length - 1;
+        int[] color = refinement.colors[rounds];
+        int[] depth = refinement.depth;
+        int[] label = refinement.label;
+        int[][] nbr = refinement.neighbors;
+
+        // 4) Determine a stable node ordering by (color, depth, label)
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        sortStable(order, (a, b) -> {
+            if (color[a] != color[b]) return Integer.compare(color[a], color[b]);
+            if (depth[a] != depth[b]) return Integer.compare(depth[a], depth[b]);
+            return Integer.compare(label[a], label[b]);
+        });
+
+        // 5) Build an index map: node position → normalized index
+        int[] indexOf = new int[n];
+        int size = 2;
+        for (int i = 0; i < n; i++) {
+            indexOf[order[i]] = i;
+            size += 4 + nbr[i].length;
+        }
+
+        // 6) Assemble the packed representation
+        int[] code = new int[size];
+        int k = 0;
+        code[k++] = n;
+        code[k++] = rounds;
+        for (int i = 0; i < n; i++) {
+            int v = order[i];
+            code[k++] = color[v];
+            code[k++] = depth[v];
+            code[k++] = label[v];
+            code[k++] = nbr[v].length;
+            int from = k;
+            for (int u : nbr[v]) {
+                code[k++] = indexOf[u];
+            }
+            Arrays.sort(code, from, k);
+        }
+        return code;
+    }
+
+    /**
+     * Node layout and Weisfeiler–Lehman colors of one pattern, by node position
+     * (the iteration order of its depth map).
+     */
+    static final class Refinement {
+        final int[] depth;
+        final int[] label;
+        /** Positions of each node's neighbors inside the pattern. */
+        final int[][] neighbors;
+        /** colors[k][v] = color of node v after k rounds; the last round is final. */
+        final int[][] colors;
+
+        private Refinement(int[] depth, int[] label, int[][] neighbors, int[][] colors) {
+            this.depth = depth;
+            this.label = label;
+            this.neighbors = neighbors;
+            this.colors = colors;
+        }
+    }
+
+    /**
+     * Runs the Weisfeiler–Lehman coloring used by the canonical form. Round 0 colors each
+     * node by hash(depth, label); each further round sets a node's color to
+     * hash(previous color, sorted multiset of neighbor colors). Refinement stops after
+     * WL_ROUNDS rounds, or earlier once a round splits no color class, since the
+     * partition cannot change after that.
+     *
+     * The refinement of the same center’s pattern at a smaller radius can be passed as
+     * prior; its nodes must be a prefix of this pattern's nodes, as they are for nested
+     * BFS balls. A node at depth d has all its neighbors within depth d+1, so its round-k
+     * color in a pattern of radius priorRadius is final whenever d ≤ priorRadius - k and
+     * is copied instead of recomputed.
+     *
+     * @param  depths       nodeID → distance from center, in node order
+     * @param  labels       nodeID → label
+     * @param  adjacency    induced adjacency among subgraph nodes
+     * @param  prior        refinement of the same center at priorRadius, or null
+     * @param  priorRadius  radius the prior refinement was computed at
+     * @return              node layout and color rounds
+     */
+    static Refinement refine(Map<Integer,Integer> depths,
+                             Map<Integer,Integer> labels,
+                             Map<Integer,List<Integer>> adjacency,
+                             Refinement prior,
+                             int priorRadius) {
+        // Lay nodes out by position and resolve neighbors to positions
+        int n = depths.size();
+        Map<Integer,Integer> position = new HashMap<>(2 * n);
+        int[] depth = new int[n];
+        int[] label = new int[n];
+        int p = 0;
+        for (Map.Entry<Integer,Integer> e : depths.entrySet()) {
+            position.put(e.getKey(), p);
+            depth[p] = e.getValue();
+            label[p] = labels.get(e.getKey());
+            p++;
+        }
+        int[][] nbr = new int[n][];
+        p = 0;
         for (Integer v : depths.keySet()) {
-            int d = depths.get(v);
-            int lbl = labels.get(v);
-            color.put(v, Objects.hash(d, lbl));
+            List<Integer> adj = adjacency.getOrDefault(v, Collections.emptyList());
+            int[] row = new int[adj.size()];
+            int m = 0;
+            for (Integer u : adj) {
+                Integer pos = position.get(u);
+                if (pos != null) {
+                    row[m++] = pos;
+                }
+            }
+            nbr[p++] = m == row.length ? row : Arrays.copyOf(row, m);
         }
 
-        // 3) Two rounds of WL refinement:
-        //    For each node, collect neighbor colors, sort them, then hash
-        for (int round = 0; round < 2; round++) {
-            Map<Integer,Integer> next = new LinkedHashMap<>();
-            for (Integer v : color.keySet()) {
-                // gather colors of adjacent nodes (only those already colored)
-                List<Integer> neighborColors = new ArrayList<>();
-                for (Integer u : adjacency.getOrDefault(v, Collections.emptyList())) {
-                    Integer c = color.get(u);
-                    if (c != null) {
-                        neighborColors.add(c);
-                    }
+        // Initial coloring: each node’s color = hash(depth, label)
+        int[][] rounds = new int[WL_ROUNDS + 1][];
+        int[] color = new int[n];
+        for (int v = 0; v < n; v++) {
+            color[v] = avalanche(mix(mix(SEED, depth[v]), label[v]));
+        }
+        rounds[0] = color;
+        int classes = countDistinct(color);
+
+        int done = 0;
+        int[] scratch = new int[16];
+        while (done < WL_ROUNDS) {
+            int round = done + 1;
+            int[] reuse = prior != null && round < prior.colors.length ? prior.colors[round] : null;
+            int reusableDepth = priorRadius - round;
+            int[] next = new int[n];
+            for (int v = 0; v < n; v++) {
+                if (reuse != null && depth[v] <= reusableDepth) {
+                    next[v] = reuse[v];
+                    continue;
+                }
+                // sort neighbor colors to form a multiset representation
+                int deg = nbr[v].length;
+                if (scratch.length < deg) {
+                    scratch = new int[Math.max(deg, 2 * scratch.length)];
                 }
-                // sort to form a multiset representation
-                Collections.sort(neighborColors);
+                for (int j = 0; j < deg; j++) {
+                    scratch[j] = color[nbr[v][j]];
+                }
+                Arrays.sort(scratch, 0, deg);
                 // new color = hash(previous color, multiset of neighbor colors)
-                next.put(v, Objects.hash(color.get(v), neighborColors));
+                int h = mix(SEED, color[v]);
+                for (int j = 0; j < deg; j++) {
+                    h = mix(h, scratch[j]);
+                }
+                next[v] = avalanche(h ^ deg);
             }
             color = next;
+            rounds[round] = color;
+            done = round;
+
+            // Stop once the partition is stable
+            int nextClasses = countDistinct(color);
+            if (nextClasses == classes) break;
+            classes = nextClasses;
         }
+        return new Refinement(depth, label, nbr, Arrays.copyOf(rounds, done + 1));
+    }
 
-        // 4) Freeze final colors for use in sorting and lambdas
-        Map<Integer,Integer> finalColor = color;
+    private static final int SEED = 0x9747b28c;
 
-        // 5) Determine a stable node ordering by (color, depth, label)
-        List<Integer> nodes = new ArrayList<>(finalColor.keySet());
-        nodes.sort(
-                Comparator.comparing(finalColor::get)
-                        .thenComparing(depths::get)
-                        .thenComparing(labels::get)
-        );
+    /** One MurmurHash3 (x86, 32-bit) block step. */
+    private static int mix(int h, int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        k *= 0x1b873593;
+        h ^= k;
+        h = Integer.rotateLeft(h, 13);
+        return h * 5 + 0xe6546b64;
+    }
 
-        // 6) Build an index map: original node ID → normalized index
-        Map<Integer,Integer> indexMap = new LinkedHashMap<>();
-        for (int i = 0; i < nodes.size(); i++) {
-            indexMap.put(nodes.get(i), i);
-        }
+    /** MurmurHash3 32-bit finalizer. */
+    private static int avalanche(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
 
-        // 7) Assemble the canonical string representation
-        StringJoiner sj = new StringJoiner(";");
-        for (int i = 0; i < nodes.size(); i++) {
-            Integer orig = nodes.get(i);
-            // map each neighbor to its new index, filter out any missing
-            List<Integer> nbrIdx = adjacency.getOrDefault(orig, Collections.emptyList())
-                    .stream()
-                    .map(indexMap::get)
-                    .filter(Objects::nonNull)
-                    .sorted()
-                    .collect(Collectors.toList());
-            // format: (index:c=<color>,d=<depth>,l=<label>→[neighborIdxs])
-            sj.add(String.format("(%d:c=%d,d=%d,l=%d→%s)",
-                    i,
-                    finalColor.get(orig),
-                    depths.get(orig),
-                    labels.get(orig),
-                    nbrIdx
-            ));
+    private static int countDistinct(int[] values) {
+        if (values.length == 0) return 0;
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[i - 1]) distinct++;
         }
+        return distinct;
+    }
 
-        return sj.toString();
+    /**
+     * Stable merge sort of int keys under a primitive comparator.
+     */
+    private static void sortStable(int[] a, IntComparator cmp) {
+        if (a.length < 2) return;
+        int[] buf = new int[a.length];
+        for (int width = 1; width < a.length; width <<= 1) {
+            for (int lo = 0; lo < a.length; lo += width << 1) {
+                int mid = Math.min(lo + width, a.length);
+                int hi = Math.min(lo + (width << 1), a.length);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    buf[k++] = cmp.compare(a[j], a[i]) < 0 ? a[j++] : a[i++];
+                }
+                while (i < mid) buf[k++] = a[i++];
+                while (j < hi) buf[k++] = a[j++];
+            }
+            System.arraycopy(buf, 0, a, 0, a.length);
+        }
     }
 
+    @FunctionalInterface
+    private interface IntComparator {
+        int compare(int a, int b);
+    }
 
+    /**
+     * Computes a 128-bit fingerprint of a canonical form as two independent 64-bit lanes.
+     */
+    private static long[] fingerprint(int[] code) {
+        long a = 0x9E3779B97F4A7C15L ^ code.length;
+        long b = 0xC2B2AE3D27D4EB4FL ^ ((long) code.length << 32);
+        for (int v : code) {
+            a = Long.rotateLeft((a ^ v) * 0x87C37B91114253D5L, 31);
+            b = Long.rotateLeft((b ^ v) * 0x4CF5AD432745937FL, 33);
+        }
+        return new long[]{fmix64(a), fmix64(b ^ a)};
+    }
 
+    /** MurmurHash3 64-bit finalizer. */
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
 
     /**
      * Two patterns are considered equal if their canonical forms match.
@@ -188,7 +398,9 @@ public class Pattern {
         if (this == o) return true;
         if (!(o instanceof Pattern)) return false;
         Pattern other = (Pattern) o;
-        return this.canonicalForm.equals(other.canonicalForm);
+        return this.fingerprintHi == other.fingerprintHi
+                && this.fingerprintLo == other.fingerprintLo
+                && Arrays.equals(this.canonicalForm, other.canonicalForm);
     }
 
     /**
@@ -200,7 +412,7 @@ public class Pattern {
      */
     @Override
     public int hashCode() {
-        return canonicalForm.hashCode();
+        return (int) (fingerprintHi ^ (fingerprintHi >>> 32));
     }
 
 
@@ -250,8 +462,14 @@ public class Pattern {
 
 
     /**
-     * @return the canonical form of this pattern, used for equality checks
+     * @return the canonical form of this pattern, used for equality checks, as big-endian
+     *         bytes (two patterns are equal exactly when these bytes are)
      */
+    byte[] canonicalKey() {
+        ByteBuffer key = ByteBuffer.allocate(canonicalForm.length * Integer.BYTES);
+        key.asIntBuffer().put(canonicalForm);
+        return key.array();
+    }
 
     public int getCenterNodeDegree() {
         return centerNodeDegree;
@@ -291,6 +509,16 @@ public class Pattern {
         this.frequency++;
     }
 
+    /**
+     * Overwrite the occurrence count with a total tallied elsewhere
+     * (used when occurrences are counted concurrently).
+     *
+     * @param frequency aggregated occurrence count
+     */
+    void setFrequency(int frequency) {
+        this.frequency = frequency;
+    }
+
     /**
      * @return unmodifiable map of nodeID to label
      */
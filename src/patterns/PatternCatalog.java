@@ -0,0 +1,278 @@
+package patterns;
+
+import helper.Graph;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.SerializerArrayTuple;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Pattern vocabulary of a training graph kept outside the Java heap, for graphs whose
+ * patterns do not fit in memory as {@link Pattern} objects.
+ *
+ * Extraction streams every center's patterns into a MapDB store instead of collecting
+ * them. Per radius, the store holds:
+ * - canonical form → the pattern's ordinal (the position of its first occurrence), to
+ *   deduplicate patterns; dropped once extraction is done
+ * - ordinal → the pattern's forward label-path keys
+ * - the inverted index of reversed label-path keys, as sorted (key, ordinal) tuples
+ * Each Pattern object lives only while its center is processed, and compatibility rows
+ * are filled straight into a {@link CompatibilityMatrix} from these tables, one pattern
+ * at a time.
+ *
+ * What stays on the heap per unique pattern is a compact summary in plain int tables:
+ * ID, center label, center-node degree and frequency.
+ *
+ * Centers are processed in node iteration order, so ordinals, IDs and frequencies are
+ * identical to those of {@link PatternExtractor#extractPatternsByRadius}, and the matrix
+ * equals the one built from {@link PatternCompatibility#computeCompatibilityByRadius(Map)}.
+ * Extraction is sequential; the catalog trades speed for memory.
+ *
+ * The store is either a memory-mapped file in a fresh directory under a given scratch
+ * directory, deleted on {@link #close()}, or off-heap direct memory, which is bounded by
+ * {@code -XX:MaxDirectMemorySize}.
+ */
+public final class PatternCatalog implements AutoCloseable {
+    private final DB db;
+    private final Path storeDir;
+    private final int maxRadius;
+
+    /** Per radius (index radius-1): compact summaries indexed by ordinal */
+    private final Summaries[] summaries;
+
+    /** Per radius (index radius-1): ordinal → forward keys */
+    private final List<HTreeMap<Integer, long[]>> forwardKeys = new ArrayList<>();
+
+    /** Per radius (index radius-1): (reversed key, ordinal) for every reversed key of every pattern */
+    private final List<NavigableSet<Object[]>> reversedOwners = new ArrayList<>();
+
+    private PatternCatalog(DB db, Path storeDir, int maxRadius) {
+        this.db = db;
+        this.storeDir = storeDir;
+        this.maxRadius = maxRadius;
+        this.summaries = new Summaries[maxRadius];
+    }
+
+    /**
+     * Extracts the patterns of every radius 1…maxRadius into a new catalog.
+     *
+     * @param  graph       the input graph; must not be null
+     * @param  maxRadius   largest hop-distance (must be ≥ 1)
+     * @param  scratchDir  directory under which the store file is created (created if
+     *                     missing), or null to keep the store in off-heap direct memory
+     * @return             the catalog; close it to release the store
+     * @throws IllegalArgumentException if maxRadius < 1
+     * @throws UncheckedIOException     if the store directory cannot be created
+     */
+    public static PatternCatalog extract(Graph graph, int maxRadius, Path scratchDir) {
+        Objects.requireNonNull(graph, "graph must not be null");
+        if (maxRadius < 1) {
+            throw new IllegalArgumentException("maxRadius must be ≥ 1");
+        }
+        DB db;
+        Path storeDir = null;
+        if (scratchDir == null) {
+            db = DBMaker.memoryDirectDB().make();
+        } else {
+            // MapDB only creates stores in files that do not exist yet, so each catalog
+            // gets its own directory
+            try {
+                Files.createDirectories(scratchDir);
+                storeDir = Files.createTempDirectory(scratchDir, "catalog");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                db = DBMaker.fileDB(storeDir.resolve("store.db").toFile())
+                        .fileMmapEnableIfSupported()
+                        .fileDeleteAfterClose()
+                        .make();
+            } catch (RuntimeException e) {
+                try {
+                    Files.deleteIfExists(storeDir);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+        PatternCatalog catalog = new PatternCatalog(db, storeDir, maxRadius);
+        try {
+            catalog.fill(graph);
+        } catch (RuntimeException e) {
+            catalog.close();
+            throw e;
+        }
+        return catalog;
+    }
+
+    private void fill(Graph graph) {
+        // 1) One dedup map, one forward-key map and one reversed-key index per radius
+        List<HTreeMap<byte[], Integer>> ordinalOf = new ArrayList<>();
+        for (int r = 1; r <= maxRadius; r++) {
+            ordinalOf.add(db.hashMap("canonical-" + r, Serializer.BYTE_ARRAY, Serializer.INTEGER).createOrOpen());
+            forwardKeys.add(db.hashMap("forward-" + r, Serializer.INTEGER, Serializer.LONG_ARRAY).createOrOpen());
+            reversedOwners.add(db.treeSet("reversed-" + r)
+                    .serializer(new SerializerArrayTuple(Serializer.LONG, Serializer.INTEGER))
+                    .createOrOpen());
+            summaries[r - 1] = new Summaries();
+        }
+
+        // 2) Stream every center's nested patterns: count repeats, store new ones
+        //    (paths at radius r have r+1 labels, as in PatternCompatibility)
+        PatternCompatibility.LabelPathCodec[] codecs = new PatternCompatibility.LabelPathCodec[maxRadius];
+        for (int r = 1; r <= maxRadius; r++) {
+            codecs[r - 1] = PatternCompatibility.LabelPathCodec.forGraph(graph, r + 1);
+        }
+        PatternExtractor.forEachCenter(graph, 1, maxRadius, nested -> {
+            for (int k = 0; k < maxRadius; k++) {
+                Pattern p = nested[k];
+                Summaries table = summaries[k];
+                Integer ordinal = ordinalOf.get(k).putIfAbsent(p.canonicalKey(), table.size);
+                if (ordinal != null) {
+                    table.frequency[ordinal]++;
+                    continue;
+                }
+                PatternCompatibility.PathKeys keys = PatternCompatibility.computeOutwardPaths(p, codecs[k]);
+                forwardKeys.get(k).put(table.size, keys.forward);
+                for (long key : keys.reversed) {
+                    reversedOwners.get(k).add(new Object[]{key, table.size});
+                }
+                table.add(p.getId(), p.getCenterLabel(), p.getCenterNodeDegree());
+            }
+        });
+
+        // 3) The canonical forms are only needed for deduplication
+        for (HTreeMap<byte[], Integer> map : ordinalOf) {
+            map.clear();
+        }
+    }
+
+    /**
+     * @return largest extracted radius
+     */
+    public int maxRadius() {
+        return maxRadius;
+    }
+
+    /**
+     * @param  radius  hop distance in [1, maxRadius]
+     * @return         number of unique patterns at that radius
+     */
+    public int size(int radius) {
+        return summaries(radius).size;
+    }
+
+    /**
+     * Dense index of the patterns at a radius, built from the compact summaries.
+     *
+     * @param  radius  hop distance in [1, maxRadius]
+     * @return         the index, patterns in first-seen order
+     */
+    public PatternIndex index(int radius) {
+        Summaries table = summaries(radius);
+        return new PatternIndex(
+                Arrays.copyOf(table.id, table.size),
+                Arrays.copyOf(table.centerLabel, table.size),
+                Arrays.copyOf(table.degree, table.size),
+                Arrays.copyOf(table.frequency, table.size));
+    }
+
+    /**
+     * Builds the compatibility matrix over a dense index, reading path keys from the store
+     * one pattern at a time. Two patterns at radius r are compatible when a forward key of
+     * one is a reversed key of the other, as in {@link PatternCompatibility}; rows and
+     * partners whose IDs are not in the index are dropped, as in
+     * {@link CompatibilityMatrix#build}.
+     *
+     * @param  index  dense numbering of the generation patterns, e.g. {@link #index(int)}
+     * @return        the matrix with a table for every radius 1…maxRadius
+     */
+    public CompatibilityMatrix compatibility(PatternIndex index) {
+        Objects.requireNonNull(index, "index must not be null");
+        CompatibilityMatrix matrix = CompatibilityMatrix.empty(index.size(), maxRadius);
+        for (int r = 1; r <= maxRadius; r++) {
+            Summaries table = summaries[r - 1];
+            HTreeMap<Integer, long[]> forward = forwardKeys.get(r - 1);
+            NavigableSet<Object[]> owners = reversedOwners.get(r - 1);
+
+            // 1) Dense position of every ordinal's ID, -1 if it is not in the index
+            int[] dense = new int[table.size];
+            for (int i = 0; i < table.size; i++) {
+                dense[i] = index.indexOf(table.id[i]);
+            }
+
+            // 2) Each forward key of i looks up the owners j of the same reversed key
+            for (int i = 0; i < table.size; i++) {
+                int p = dense[i];
+                if (p < 0) continue;
+                matrix.markRow(r, p);
+                for (long key : forward.get(i)) {
+                    for (Object[] owner : owners.subSet(new Object[]{key}, true, new Object[]{key, null}, true)) {
+                        int j = (Integer) owner[1];
+                        if (j != i && dense[j] >= 0) {
+                            matrix.set(r, p, dense[j]);
+                        }
+                    }
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Releases the store (and deletes its file and directory, if any).
+     */
+    @Override
+    public void close() {
+        if (!db.isClosed()) {
+            db.close();
+        }
+        if (storeDir != null) {
+            try {
+                Files.deleteIfExists(storeDir);
+            } catch (IOException e) {
+                System.err.printf("Could not delete catalog directory %s: %s%n", storeDir, e.getMessage());
+            }
+        }
+    }
+
+    private Summaries summaries(int radius) {
+        if (radius < 1 || radius > maxRadius) {
+            throw new IllegalArgumentException("radius must be in [1, " + maxRadius + "]: " + radius);
+        }
+        return summaries[radius - 1];
+    }
+
+    /**
+     * Growable per-ordinal tables of one radius.
+     */
+    private static final class Summaries {
+        int[] id = new int[16];
+        int[] centerLabel = new int[16];
+        int[] degree = new int[16];
+        int[] frequency = new int[16];
+        int size;
+
+        void add(int patternId, int label, int centerDegree) {
+            if (size == id.length) {
+                id = Arrays.copyOf(id, size * 2);
+                centerLabel = Arrays.copyOf(centerLabel, size * 2);
+                degree = Arrays.copyOf(degree, size * 2);
+                frequency = Arrays.copyOf(frequency, size * 2);
+            }
+            id[size] = patternId;
+            centerLabel[size] = label;
+            degree[size] = centerDegree;
+            frequency[size] = 1;
+            size++;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package patterns;
 
 import helper.Graph;
+import helper.LongHashSet;
+import helper.Node;
 
 import java.util.*;
 
@@ -21,12 +23,12 @@ import java.util.*;
  *
  *   Extracts all outward label-paths of length radius+1 (center → depth=radius)
  *       using a depth-first traversal over the Pattern’s adjacency restricted to
- *       strictly increasing depths.
- *   Builds a HashSet of the reversed paths for each Pattern, enabling O(1)
- *       membership tests when comparing sequences.
- *   Performs a pairwise comparison of Patterns (i &lt; j): if any of i’s
- *       outward paths appears in j’s reversed-path set, then i and j are marked
- *       mutually compatible.
+ *       strictly increasing depths, encoding each path and its reversal as a
+ *       packed {@code long} key.
+ *   Builds an inverted index from each reversed path to the Patterns owning it.
+ *   Looks up every outward path of each Pattern in that index: if one of i’s
+ *       outward paths is a reversed path of j (i ≠ j), then i and j are
+ *       mutually compatible. No pair of Patterns is compared directly.
  *   Packages the results into PatternCompatibility objects (one per input
  *       Pattern), each recording its own ID and the set of IDs it can connect to.
  *
@@ -52,6 +54,8 @@ public class PatternCompatibility {
      *
      * For each pair of distinct Patterns (i, j), if any outward label‐path from i
      * equals a reversed outward path of j, they are marked mutually compatible.
+     * Partners are found through an inverted index over reversed paths, so the cost
+     * grows with the number of matching paths rather than with the number of pairs.
      *
      * @param  patterns  list of ego‐network Patterns (all at the same radius); must not be null
      * @return           a list of PatternCompatibility objects, in the same order as input patterns,
@@ -69,42 +73,63 @@ public class PatternCompatibility {
             result.add(new PatternCompatibility(p.getId()));
         }
 
-        // 2) Precompute each Pattern’s outward label‐paths (length = radius+1)
-        List<List<List<Integer>>> outwardPaths = new ArrayList<>(n);
+        // 2) Precompute each Pattern’s outward label‐paths (length = radius+1) as packed keys
+        LabelPathCodec codec = LabelPathCodec.forPatterns(patterns);
+        List<PathKeys> pathKeys = new ArrayList<>(n);
         for (Pattern p : patterns) {
-            outwardPaths.add(computeOutwardPaths(p));
+            pathKeys.add(computeOutwardPaths(p, codec));
         }
 
-        // 3) Precompute each Pattern’s reversed‐paths set for O(1) lookups
-        List<Set<List<Integer>>> reversedSets = new ArrayList<>(n);
-        for (List<List<Integer>> paths : outwardPaths) {
-            Set<List<Integer>> rev = new HashSet<>();
-            for (List<Integer> path : paths) {
-                List<Integer> r = new ArrayList<>(path);
-                Collections.reverse(r);
-                rev.add(r);
+        // 3) Inverted index: reversed label‐path → positions of the Patterns owning it,
+        //    stored as CSR lists over the dense ordinals of a primitive key set
+        LongHashSet reversedKeys = new LongHashSet();
+        int[][] ordinals = new int[n][];
+        for (int j = 0; j < n; j++) {
+            long[] rev = pathKeys.get(j).reversed;
+            ordinals[j] = new int[rev.length];
+            for (int k = 0; k < rev.length; k++) {
+                ordinals[j][k] = reversedKeys.add(rev[k]);
+            }
+        }
+        int[] ownerStart = new int[reversedKeys.size() + 1];
+        for (int[] ords : ordinals) {
+            for (int o : ords) {
+                ownerStart[o + 1]++;
+            }
+        }
+        for (int o = 0; o < reversedKeys.size(); o++) {
+            ownerStart[o + 1] += ownerStart[o];
+        }
+        int[] owners = new int[ownerStart[reversedKeys.size()]];
+        int[] fill = Arrays.copyOf(ownerStart, reversedKeys.size());
+        for (int j = 0; j < n; j++) {
+            for (int o : ordinals[j]) {
+                owners[fill[o]++] = j;
             }
-            reversedSets.add(rev);
         }
 
-        // 4) Pairwise compatibility: for i<j, check if any outward path of i is in j’s reversed set
+        // 4) Each outward path of i looks up its partners j directly; the relation is
+        //    symmetric, so every pattern collects its full partner set from its own paths
+        int[] seenBy = new int[n];
+        Arrays.fill(seenBy, -1);
+        int[] partners = new int[n];
         for (int i = 0; i < n; i++) {
-            List<List<Integer>> pathsI = outwardPaths.get(i);
-            for (int j = i + 1; j < n; j++) {
-                Set<List<Integer>> revJ = reversedSets.get(j);
-                boolean compatible = false;
-                for (List<Integer> pi : pathsI) {
-                    if (revJ.contains(pi)) {
-                        compatible = true;
-                        break;
+            int count = 0;
+            for (long pi : pathKeys.get(i).forward) {
+                int o = reversedKeys.indexOf(pi);
+                if (o < 0) continue;
+                for (int k = ownerStart[o]; k < ownerStart[o + 1]; k++) {
+                    int j = owners[k];
+                    if (j != i && seenBy[j] != i) {
+                        seenBy[j] = i;
+                        partners[count++] = j;
                     }
                 }
-                if (compatible) {
-                    int idI = patterns.get(i).getId();
-                    int idJ = patterns.get(j).getId();
-                    result.get(i).addCompatible(idJ);
-                    result.get(j).addCompatible(idI);
-                }
+            }
+            // ascending partner order keeps compatible IDs in pattern order
+            Arrays.sort(partners, 0, count);
+            for (int k = 0; k < count; k++) {
+                result.get(i).addCompatible(patterns.get(partners[k]).getId());
             }
         }
 
@@ -117,13 +142,16 @@ public class PatternCompatibility {
      * Each path is a sequence of labels starting with the center label and
      * extending outward one hop at a time, following only edges that increase
      * the node’s distance from the center, until reaching the specified radius.
+     * Paths are not materialized: the DFS carries each path's forward key and the
+     * key of its reversal, both extended by one label per step.
      *
      * @param  pattern  the Pattern whose outward paths are extracted; must not be null
-     * @return          an unmodifiable list of label‐sequences, each of length radius+1
+     * @param  codec    encoding of label paths into keys
+     * @return          distinct forward and reversed keys of all paths of length radius+1
      * @throws NullPointerException     if pattern or its internal maps are null
      * @throws IllegalArgumentException if radius &lt; 1
      */
-    private static List<List<Integer>> computeOutwardPaths(Pattern pattern) {
+    static PathKeys computeOutwardPaths(Pattern pattern, LabelPathCodec codec) {
         // Validate inputs
         Objects.requireNonNull(pattern,        "pattern must not be null");
         Map<Integer,Integer> depths    = Objects.requireNonNull(pattern.getDepths(),    "depths map must not be null");
@@ -134,23 +162,42 @@ public class PatternCompatibility {
             throw new IllegalArgumentException("radius must be at least 1");
         }
 
-        List<List<Integer>> paths = new ArrayList<>();
-        Deque<Integer> nodeStack  = new ArrayDeque<>();
-        Deque<List<Integer>> labelStack = new ArrayDeque<>();
+        long[] forward = new long[8];
+        long[] reversed = new long[8];
+        int paths = 0;
+
+        // Parallel primitive stacks: node, depth, forward key, reversed key
+        int[] nodeStack = new int[16];
+        int[] depthStack = new int[16];
+        long[] forwardStack = new long[16];
+        long[] reversedStack = new long[16];
+        int top = 0;
 
         // Initialize DFS from center
-        nodeStack.push(pattern.getId());
-        labelStack.push(List.of(pattern.getCenterLabel()));
+        int centerCode = codec.code(pattern.getCenterLabel());
+        nodeStack[top] = pattern.getId();
+        depthStack[top] = 0;
+        forwardStack[top] = codec.forward(0L, centerCode, 0);
+        reversedStack[top] = codec.reversed(0L, centerCode, 0);
+        top++;
 
         // Depth-first traversal: only follow edges that increase depth
-        while (!nodeStack.isEmpty()) {
-            int currentNode = nodeStack.pop();
-            List<Integer> currentLabels = labelStack.pop();
-            int currentDepth = currentLabels.size() - 1;
+        while (top > 0) {
+            top--;
+            int currentNode = nodeStack[top];
+            int currentDepth = depthStack[top];
+            long fwd = forwardStack[top];
+            long rev = reversedStack[top];
 
             // If we've reached the radius, record the label path
             if (currentDepth == radius) {
-                paths.add(currentLabels);
+                if (paths == forward.length) {
+                    forward = Arrays.copyOf(forward, paths * 2);
+                    reversed = Arrays.copyOf(reversed, paths * 2);
+                }
+                forward[paths] = codec.finish(fwd, radius + 1);
+                reversed[paths] = codec.finish(rev, radius + 1);
+                paths++;
                 continue;
             }
 
@@ -158,15 +205,141 @@ public class PatternCompatibility {
             for (Integer neighbor : adj.getOrDefault(currentNode, Collections.emptyList())) {
                 int neighborDepth = depths.getOrDefault(neighbor, -1);
                 if (neighborDepth == currentDepth + 1) {
-                    List<Integer> newPath = new ArrayList<>(currentLabels);
-                    newPath.add(labels.get(neighbor));
-                    nodeStack.push(neighbor);
-                    labelStack.push(newPath);
+                    if (top == nodeStack.length) {
+                        nodeStack = Arrays.copyOf(nodeStack, top * 2);
+                        depthStack = Arrays.copyOf(depthStack, top * 2);
+                        forwardStack = Arrays.copyOf(forwardStack, top * 2);
+                        reversedStack = Arrays.copyOf(reversedStack, top * 2);
+                    }
+                    int c = codec.code(labels.get(neighbor));
+                    nodeStack[top] = neighbor;
+                    depthStack[top] = neighborDepth;
+                    forwardStack[top] = codec.forward(fwd, c, neighborDepth);
+                    reversedStack[top] = codec.reversed(rev, c, neighborDepth);
+                    top++;
+                }
+            }
+        }
+
+        return new PathKeys(distinct(forward, paths), distinct(reversed, paths));
+    }
+
+    /** Sorted distinct values among the first n entries of keys. */
+    private static long[] distinct(long[] keys, int n) {
+        long[] sorted = Arrays.copyOf(keys, n);
+        Arrays.sort(sorted);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || sorted[i] != sorted[m - 1]) {
+                sorted[m++] = sorted[i];
+            }
+        }
+        return m == n ? sorted : Arrays.copyOf(sorted, m);
+    }
+
+    /**
+     * Outward label paths of one Pattern: the key of each path and the key of each
+     * path read backwards. A forward key of i equals a reversed key of j exactly
+     * when the path of i is the reversal of a path of j.
+     */
+    static final class PathKeys {
+        final long[] forward;
+        final long[] reversed;
+
+        PathKeys(long[] forward, long[] reversed) {
+            this.forward = forward;
+            this.reversed = reversed;
+        }
+    }
+
+    /**
+     * Encodes label paths into {@code long} keys.
+     *
+     * Labels are renumbered to codes 1…L. When every path fits, each label takes a
+     * fixed-width bit field (depth k in field k), so a key is the path itself and the
+     * reversed key is built by shifting each new field in from the bottom. Alphabets too
+     * wide for that fall back to a 64-bit polynomial hash of the path, maintained for
+     * both reading directions; two different paths then share a key only on a hash
+     * collision.
+     */
+    static final class LabelPathCodec {
+        private static final long BASE = 0x9E3779B97F4A7C15L;
+
+        private final Map<Integer,Integer> codeOf;
+        private final int bits;
+        private final boolean packed;
+        /** powers[k] = BASE^k, for the hashed form */
+        private final long[] powers;
+
+        private LabelPathCodec(Map<Integer,Integer> codeOf, int maxLength) {
+            this.codeOf = codeOf;
+            this.bits = 32 - Integer.numberOfLeadingZeros(codeOf.size());
+            this.packed = (long) bits * maxLength <= 64;
+            this.powers = new long[maxLength];
+            long pow = 1L;
+            for (int k = 0; k < maxLength; k++) {
+                powers[k] = pow;
+                pow *= BASE;
+            }
+        }
+
+        /**
+         * Codec over every label in the graph, for encoding patterns before all of them are
+         * known. Every node is the center of a pattern, so the alphabet (and with it the
+         * choice between packed and hashed keys) is the same as for the full pattern list.
+         */
+        static LabelPathCodec forGraph(Graph graph, int maxLength) {
+            Map<Integer,Integer> codeOf = new HashMap<>();
+            for (Node node : graph.getAllNodes()) {
+                codeOf.putIfAbsent(node.getLabel(), codeOf.size() + 1);
+            }
+            return new LabelPathCodec(codeOf, maxLength);
+        }
+
+        static LabelPathCodec forPatterns(List<Pattern> patterns) {
+            Map<Integer,Integer> codeOf = new HashMap<>();
+            int maxLength = 1;
+            for (Pattern p : patterns) {
+                codeOf.putIfAbsent(p.getCenterLabel(), codeOf.size() + 1);
+                for (int label : p.getLabels().values()) {
+                    codeOf.putIfAbsent(label, codeOf.size() + 1);
                 }
+                maxLength = Math.max(maxLength, p.getRadius() + 1);
             }
+            return new LabelPathCodec(codeOf, maxLength);
+        }
+
+        int code(int label) {
+            return codeOf.get(label);
+        }
+
+        /** Appends the label code at the given depth to a forward key. */
+        long forward(long key, int code, int depth) {
+            return packed
+                    ? key | ((long) code << (bits * depth))
+                    : key * BASE + spread(code);
         }
 
-        return Collections.unmodifiableList(paths);
+        /** Prepends the label code at the given depth to a reversed key. */
+        long reversed(long key, int code, int depth) {
+            return packed
+                    ? (key << bits) | code
+                    : key + spread(code) * powers[depth];
+        }
+
+        long finish(long key, int length) {
+            return packed ? key : spread(key ^ length);
+        }
+
+        /** MurmurHash3 64-bit finalizer. */
+        private static long spread(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
     }
 
 
@@ -185,23 +358,55 @@ public class PatternCompatibility {
     public static Map<Integer, Map<Integer, Set<Integer>>> computeCompatibilityByRadius(
             Graph graph,
             int maxRadius
+    ) {
+        return computeCompatibilityByRadius(graph, maxRadius, false);
+    }
+
+    /**
+     * Same as {@link #computeCompatibilityByRadius(Graph, int)}, optionally extracting
+     * the per-radius patterns in parallel (see {@link PatternExtractor#extractPatterns(Graph, int, boolean)}).
+     * All radii are extracted in a single pass over the graph.
+     *
+     * @param  graph      the input graph; must not be null
+     * @param  maxRadius  maximum hop-distance (must be ≥ 1)
+     * @param  parallel   true to build ego networks concurrently
+     * @return            radius → (patternId → compatible patternIds)
+     * @throws IllegalArgumentException if graph is null or maxRadius < 1
+     */
+    public static Map<Integer, Map<Integer, Set<Integer>>> computeCompatibilityByRadius(
+            Graph graph,
+            int maxRadius,
+            boolean parallel
     ) {
         Objects.requireNonNull(graph, "graph must not be null");
         if (maxRadius < 1) {
             throw new IllegalArgumentException("maxRadius must be at least 1");
         }
+        return computeCompatibilityByRadius(
+                PatternExtractor.extractPatternsByRadius(graph, maxRadius, parallel));
+    }
+
+    /**
+     * Builds the per-radius compatibility tables from patterns that were already
+     * extracted for every radius, e.g. by {@link PatternExtractor#extractPatternsByRadius}.
+     *
+     * @param  patternsByRadius  radius → unique Patterns at that radius; must not be null
+     * @return                   radius → (patternId → compatible patternIds), in the
+     *                           iteration order of patternsByRadius
+     */
+    public static Map<Integer, Map<Integer, Set<Integer>>> computeCompatibilityByRadius(
+            Map<Integer, List<Pattern>> patternsByRadius
+    ) {
+        Objects.requireNonNull(patternsByRadius, "patternsByRadius must not be null");
 
         Map<Integer, Map<Integer, Set<Integer>>> compatibilityByRadius = new LinkedHashMap<>();
 
         // For each radius, build compatibility table
-        for (int radius = 1; radius <= maxRadius; radius++) {
-            // 1) Extract all ego-network patterns at this radius
-            List<Pattern> patterns = PatternExtractor.extractPatterns(graph, radius);
-
-            // 2) Compute raw compatibility pairs
-            List<PatternCompatibility> rawComps = computeCompatibility(patterns);
+        for (Map.Entry<Integer, List<Pattern>> byRadius : patternsByRadius.entrySet()) {
+            // 1) Compute raw compatibility pairs
+            List<PatternCompatibility> rawComps = computeCompatibility(byRadius.getValue());
 
-            // 3) Index by pattern ID into a LinkedHashMap to preserve insertion order
+            // 2) Index by pattern ID into a LinkedHashMap to preserve insertion order
             Map<Integer, Set<Integer>> table = new LinkedHashMap<>();
             for (PatternCompatibility pc : rawComps) {
                 // Use a LinkedHashSet to preserve the order of compatible IDs
@@ -209,7 +414,7 @@ public class PatternCompatibility {
                         new LinkedHashSet<>(pc.getCompatibleIds()));
             }
 
-            compatibilityByRadius.put(radius, table);
+            compatibilityByRadius.put(byRadius.getKey(), table);
         }
 
         return compatibilityByRadius;
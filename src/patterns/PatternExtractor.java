@@ -1,18 +1,31 @@
 package patterns;
 
+import helper.BoundedBfs;
 import helper.Graph;
 import helper.Node;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  * Builds ego-network Patterns for each node in a graph up to a given radius.
  * For each center node, performs a BFS to depth ≤ radius, captures node labels,
  * induced adjacency, layering by distance, and depths, then deduplicates
  * identical Patterns by canonical form—incrementing frequency for duplicates.
+ * When several radii are needed, one BFS per center serves all of them.
+ *
+ * The searches run on a compressed sparse row copy of the graph with the shared
+ * {@link BoundedBfs} kernel, one scratch instance per thread, so no per-center
+ * queue, visited set or depth map is allocated.
  */
 public final class PatternExtractor {
+    /** Bumped whenever a change here alters the extracted patterns, IDs or frequencies (invalidates cached models) */
+    public static final int VERSION = 1;
+
     // Prevent instantiation
     private PatternExtractor() { }
 
@@ -26,103 +39,258 @@ public final class PatternExtractor {
      * @throws IllegalArgumentException if graph is null or radius < 1
      */
     public static List<Pattern> extractPatterns(Graph graph, int radius) {
+        return extractPatterns(graph, radius, false);
+    }
+
+    /**
+     * Extracts ego-network patterns for all nodes in the graph at the specified radius,
+     * optionally building the ego networks concurrently.
+     *
+     * In parallel mode every center is processed on the common fork/join pool and merged
+     * into a concurrent map keyed by canonical form, with an atomic occurrence counter per
+     * pattern. Each pattern remembers the lowest node position that produced it, and the
+     * result is ordered by that position, so pattern IDs, order and frequencies are
+     * identical to the sequential mode regardless of scheduling.
+     *
+     * @param  graph     the input graph; must not be null
+     * @param  radius    maximum hop-distance (must be ≥ 1)
+     * @param  parallel  true to build ego networks concurrently
+     * @return           list of unique Patterns, each with its aggregated frequency
+     * @throws IllegalArgumentException if graph is null or radius < 1
+     */
+    public static List<Pattern> extractPatterns(Graph graph, int radius, boolean parallel) {
         Objects.requireNonNull(graph, "graph must not be null");
         if (radius < 1) {
             throw new IllegalArgumentException("radius must be ≥ 1");
         }
+        return extract(graph, radius, radius, parallel).get(radius);
+    }
+
+    /**
+     * Extracts the ego-network patterns of every radius 1…maxRadius in a single pass.
+     *
+     * Each center is searched once to depth maxRadius; the pattern at radius r is the
+     * restriction of that ego network to nodes within r hops, and its Weisfeiler–Lehman
+     * colors are seeded from the radius r-1 pattern wherever they cannot differ. The
+     * patterns, IDs and frequencies for each radius are identical to calling
+     * {@link #extractPatterns(Graph, int, boolean)} once per radius.
+     *
+     * @param  graph      the input graph; must not be null
+     * @param  maxRadius  largest hop-distance (must be ≥ 1)
+     * @param  parallel   true to build ego networks concurrently
+     * @return            radius → list of unique Patterns at that radius, radii ascending
+     * @throws IllegalArgumentException if graph is null or maxRadius < 1
+     */
+    public static Map<Integer, List<Pattern>> extractPatternsByRadius(Graph graph, int maxRadius, boolean parallel) {
+        Objects.requireNonNull(graph, "graph must not be null");
+        if (maxRadius < 1) {
+            throw new IllegalArgumentException("maxRadius must be ≥ 1");
+        }
+        return extract(graph, 1, maxRadius, parallel);
+    }
+
+    /**
+     * Builds and deduplicates the patterns of every radius in [minRadius…maxRadius].
+     *
+     * @return radius → unique Patterns in first-seen order
+     */
+    private static Map<Integer, List<Pattern>> extract(Graph graph, int minRadius, int maxRadius, boolean parallel) {
+        int span = maxRadius - minRadius + 1;
+        Map<Integer, List<Pattern>> result = new LinkedHashMap<>();
+        Csr csr = new Csr(graph);
+
+        if (parallel) {
+            List<ConcurrentMap<Pattern, Occurrence>> unique = new ArrayList<>(span);
+            for (int k = 0; k < span; k++) {
+                unique.add(new ConcurrentHashMap<>());
+            }
+
+            IntStream.range(0, csr.nodes.length).parallel().forEach(i -> {
+                Pattern[] nested = buildPatterns(csr, i, minRadius, maxRadius);
+                for (int k = 0; k < span; k++) {
+                    Occurrence occ = unique.get(k).computeIfAbsent(nested[k], key -> new Occurrence());
+                    occ.count.incrementAndGet();
+                    occ.offer(i, nested[k]);
+                }
+            });
+
+            for (int k = 0; k < span; k++) {
+                result.put(minRadius + k, inFirstSeenOrder(unique.get(k)));
+            }
+            return result;
+        }
 
         // Preserve insertion order of first-seen patterns
-        Map<Pattern, Pattern> unique = new LinkedHashMap<>();
-        for (Node center : graph.getAllNodes()) {
-            Pattern p = buildPattern(center, radius);
-            Pattern existing = unique.get(p);
-            if (existing == null) {
-                unique.put(p, p);
-            } else {
-                existing.updateFrequency();
+        List<Map<Pattern, Pattern>> unique = new ArrayList<>(span);
+        for (int k = 0; k < span; k++) {
+            unique.add(new LinkedHashMap<>());
+        }
+        for (int center = 0; center < csr.nodes.length; center++) {
+            Pattern[] nested = buildPatterns(csr, center, minRadius, maxRadius);
+            for (int k = 0; k < span; k++) {
+                Pattern existing = unique.get(k).get(nested[k]);
+                if (existing == null) {
+                    unique.get(k).put(nested[k], nested[k]);
+                } else {
+                    existing.updateFrequency();
+                }
             }
         }
-        return new ArrayList<>(unique.values());
+        for (int k = 0; k < span; k++) {
+            result.put(minRadius + k, new ArrayList<>(unique.get(k).values()));
+        }
+        return result;
     }
 
     /**
-     * Builds a single Pattern for the given center node with initial frequency = 1.
+     * Builds the nested patterns of every center in node iteration order and hands each
+     * array to the sink, without keeping any of them. Used to stream patterns into a
+     * store that deduplicates them elsewhere (see {@link PatternCatalog}).
      *
-     * @param  center  the center node; must not be null
-     * @param  radius  maximum hop-distance (≥ 1)
-     * @return         a new Pattern capturing the center’s ego-network
+     * @param graph      the input graph
+     * @param minRadius  smallest hop-distance to emit (≥ 1)
+     * @param maxRadius  largest hop-distance to emit (≥ minRadius)
+     * @param sink       receives, per center, its patterns indexed by radius - minRadius
      */
-    private static Pattern buildPattern(Node center, int radius) {
-        // 1) Compute BFS depths from center
-        Map<Node,Integer> nodeDepths = computeDepths(center, radius);
-
-        // 2) Map node IDs to labels and depths
-        Map<Integer,Integer> labels = new LinkedHashMap<>();
-        Map<Integer,Integer> depths = new LinkedHashMap<>();
-        for (Map.Entry<Node,Integer> e : nodeDepths.entrySet()) {
-            Node n = e.getKey();
-            labels.put(n.getId(), n.getLabel());
-            depths.put(n.getId(), e.getValue());
+    static void forEachCenter(Graph graph, int minRadius, int maxRadius, Consumer<Pattern[]> sink) {
+        Csr csr = new Csr(graph);
+        for (int center = 0; center < csr.nodes.length; center++) {
+            sink.accept(buildPatterns(csr, center, minRadius, maxRadius));
         }
+    }
 
-        // 3) Build per-distance layers
-        List<Set<Integer>> layers = computeLayers(depths, radius);
-
-        // 4) Build induced adjacency among nodes within radius
-        Set<Integer> subIds = labels.keySet();
-        Map<Integer,List<Integer>> adjacency = new LinkedHashMap<>();
-        for (Node n : nodeDepths.keySet()) {
-            List<Integer> nbrs = n.getNeighbors().stream()
-                    .map(Node::getId)
-                    .filter(subIds::contains)
-                    .collect(Collectors.toList());
-            adjacency.put(n.getId(), nbrs);
+    /**
+     * Orders concurrently tallied patterns by the first center that produced them, so IDs
+     * and ordering match the sequential mode regardless of scheduling.
+     */
+    private static List<Pattern> inFirstSeenOrder(ConcurrentMap<Pattern, Occurrence> unique) {
+        List<Occurrence> ordered = new ArrayList<>(unique.values());
+        ordered.sort(Comparator.comparingInt(o -> o.firstPosition));
+        List<Pattern> result = new ArrayList<>(ordered.size());
+        for (Occurrence occ : ordered) {
+            occ.first.setFrequency(occ.count.get());
+            result.add(occ.first);
         }
+        return result;
+    }
 
-        // 5) Center node degree = number of neighbors at distance 1
-        int centerNodeDegree = layers.get(0).size();
-
-        // 6) Construct Pattern with frequency = 1
-        return new Pattern(
-                center.getId(),
-                center.getLabel(),
-                radius,
-                labels,
-                adjacency,
-                layers,
-                depths,
-                1,
-                centerNodeDegree
-        );
+    /**
+     * Concurrent tally of one canonical pattern: how often it occurred and which
+     * center (by position in the node iteration order) produced it first.
+     */
+    private static final class Occurrence {
+        final AtomicInteger count = new AtomicInteger();
+        int firstPosition = Integer.MAX_VALUE;
+        Pattern first;
+
+        synchronized void offer(int position, Pattern p) {
+            if (position < firstPosition) {
+                firstPosition = position;
+                first = p;
+            }
+        }
     }
 
     /**
-     * Performs a breadth-first search from the center up to the given radius.
+     * The graph as dense arrays: vertex i is nodes[i], in node iteration order, and its
+     * neighbors, in the order of {@link Node#getNeighbors()}, are
+     * targets[offsets[i]] … targets[offsets[i+1]-1].
+     */
+    private static final class Csr {
+        final Node[] nodes;
+        final int[] offsets;
+        final int[] targets;
+
+        Csr(Graph graph) {
+            this.nodes = graph.getAllNodes().toArray(new Node[0]);
+            Map<Integer, Integer> indexOf = new HashMap<>(nodes.length * 2);
+            this.offsets = new int[nodes.length + 1];
+            for (int i = 0; i < nodes.length; i++) {
+                indexOf.put(nodes[i].getId(), i);
+                offsets[i + 1] = offsets[i] + nodes[i].getNeighbors().size();
+            }
+            this.targets = new int[offsets[nodes.length]];
+            for (int i = 0; i < nodes.length; i++) {
+                int e = offsets[i];
+                for (Node nbr : nodes[i].getNeighbors()) {
+                    targets[e++] = indexOf.get(nbr.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the nested Patterns of one center for every radius in [minRadius…maxRadius],
+     * each with initial frequency = 1, from a single BFS to maxRadius.
+     *
+     * BFS visits nodes in order of distance, so restricting the search to depth ≤ r yields
+     * exactly the nodes, insertion order and induced adjacency a BFS to r would have.
      *
-     * @param  center  start node for BFS; must not be null
-     * @param  radius  maximum hop-distance (≥ 1)
-     * @return         map of each reached Node to its distance from center
+     * @param  graph      the graph in CSR form
+     * @param  center     dense index of the center node
+     * @param  minRadius  smallest hop-distance to emit (≥ 1)
+     * @param  maxRadius  largest hop-distance to emit (≥ minRadius)
+     * @return            patterns indexed by radius - minRadius
      */
-    private static Map<Node,Integer> computeDepths(Node center, int radius) {
-        Map<Node,Integer> depthMap = new LinkedHashMap<>();
-        Queue<Node> queue = new ArrayDeque<>();
-
-        depthMap.put(center, 0);
-        queue.add(center);
-
-        while (!queue.isEmpty()) {
-            Node current = queue.poll();
-            int dist = depthMap.get(current);
-            if (dist >= radius) continue;
-
-            for (Node nbr : current.getNeighbors()) {
-                if (!depthMap.containsKey(nbr)) {
-                    depthMap.put(nbr, dist + 1);
-                    queue.add(nbr);
+    private static Pattern[] buildPatterns(Csr graph, int center, int minRadius, int maxRadius) {
+        // 1) Compute BFS depths from center once, to the largest radius
+        BoundedBfs bfs = BoundedBfs.forCurrentThread();
+        int reached = bfs.run(graph.offsets, graph.targets, center, maxRadius);
+        Node centerNode = graph.nodes[center];
+
+        Pattern[] nested = new Pattern[maxRadius - minRadius + 1];
+        Pattern.Refinement prior = null;
+        for (int radius = minRadius; radius <= maxRadius; radius++) {
+            // 2) Map node IDs to labels and depths, keeping nodes within this radius
+            Map<Integer,Integer> labels = new LinkedHashMap<>();
+            Map<Integer,Integer> depths = new LinkedHashMap<>();
+            int within = 0;
+            for (; within < reached && bfs.depth(within) <= radius; within++) {
+                Node n = graph.nodes[bfs.vertex(within)];
+                labels.put(n.getId(), n.getLabel());
+                depths.put(n.getId(), bfs.depth(within));
+            }
+
+            // 3) Build per-distance layers
+            List<Set<Integer>> layers = computeLayers(depths, radius);
+
+            // 4) Build induced adjacency among nodes within radius
+            Map<Integer,List<Integer>> adjacency = new LinkedHashMap<>();
+            for (int i = 0; i < within; i++) {
+                int v = bfs.vertex(i);
+                List<Integer> nbrs = new ArrayList<>(graph.offsets[v + 1] - graph.offsets[v]);
+                for (int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) {
+                    int w = graph.targets[e];
+                    int dw = bfs.depthOf(w);
+                    if (dw >= 0 && dw <= radius) {
+                        nbrs.add(graph.nodes[w].getId());
+                    }
                 }
+                adjacency.put(graph.nodes[v].getId(), nbrs);
             }
+
+            // 5) Center node degree = number of neighbors at distance 1
+            int centerNodeDegree = layers.get(0).size();
+
+            // 6) Refine colors, reusing those of the next-smaller radius where still valid
+            Pattern.Refinement refinement = Pattern.refine(depths, labels, adjacency, prior, radius - 1);
+
+            // 7) Construct Pattern with frequency = 1
+            nested[radius - minRadius] = new Pattern(
+                    centerNode.getId(),
+                    centerNode.getLabel(),
+                    radius,
+                    labels,
+                    adjacency,
+                    layers,
+                    depths,
+                    1,
+                    centerNodeDegree,
+                    refinement
+            );
+            prior = refinement;
         }
-        return depthMap;
+        return nested;
     }
 
     /**
@@ -0,0 +1,144 @@
+package patterns;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Dense 0..P-1 numbering of a list of extracted Patterns, together with the per-pattern
+ * values generation needs.
+ *
+ * Pattern IDs are the ID of the first center node observed for each pattern, so they are
+ * sparse and arbitrary. Generation works on the position of each pattern in the extracted
+ * list instead, which lets cell domains be stored as bitsets over [0, P) and the center
+ * label, center degree and frequency of a pattern be read from plain {@code int[]} tables.
+ * The original IDs are kept for reporting only.
+ */
+public final class PatternIndex {
+    private final int[] ids;
+    private final Map<Integer, Integer> indexOf;
+
+    /** Per dense index: center-node label, center-node degree, occurrence count. */
+    private final int[] centerLabel;
+    private final int[] degree;
+    private final int[] frequency;
+
+    /**
+     * @param patterns extracted patterns; the dense index of each is its list position
+     */
+    public PatternIndex(List<Pattern> patterns) {
+        Objects.requireNonNull(patterns, "patterns must not be null");
+        int n = patterns.size();
+        this.ids = new int[n];
+        this.indexOf = new HashMap<>();
+        this.centerLabel = new int[n];
+        this.degree = new int[n];
+        this.frequency = new int[n];
+        for (int i = 0; i < n; i++) {
+            Pattern p = patterns.get(i);
+            ids[i] = p.getId();
+            indexOf.put(ids[i], i);
+            centerLabel[i] = p.getCenterLabel();
+            degree[i] = p.getCenterNodeDegree();
+            frequency[i] = p.getFrequency();
+        }
+    }
+
+    /**
+     * Index over tables that were already built, e.g. from the compact summaries of a
+     * {@link PatternCatalog}; the arrays are taken over, not copied.
+     */
+    PatternIndex(int[] ids, int[] centerLabel, int[] degree, int[] frequency) {
+        this.ids = ids;
+        this.indexOf = new HashMap<>();
+        this.centerLabel = centerLabel;
+        this.degree = degree;
+        this.frequency = frequency;
+        for (int i = 0; i < ids.length; i++) {
+            indexOf.put(ids[i], i);
+        }
+    }
+
+    /**
+     * Writes the index as P followed by the ID, center label, degree and frequency tables.
+     *
+     * @param  out  destination
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(ids.length);
+        for (int[] table : new int[][]{ids, centerLabel, degree, frequency}) {
+            for (int value : table) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(DataOutput)}, advancing the buffer past it.
+     *
+     * @param  in  big-endian source positioned at the index
+     * @return     the index
+     * @throws IllegalArgumentException if the stored size is negative or exceeds the buffer
+     */
+    public static PatternIndex readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0 || 4L * n * Integer.BYTES > in.remaining()) {
+            throw new IllegalArgumentException("Pattern count " + n + " does not fit the remaining data");
+        }
+        int[][] tables = new int[4][n];
+        for (int[] table : tables) {
+            in.asIntBuffer().get(table);
+            in.position(in.position() + n * Integer.BYTES);
+        }
+        return new PatternIndex(tables[0], tables[1], tables[2], tables[3]);
+    }
+
+    /**
+     * @return number of patterns P
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param  index  dense index in [0, P)
+     * @return        the original pattern ID
+     */
+    public int idOf(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param  id  original pattern ID
+     * @return     the dense index, or -1 if the ID is not part of this index
+     */
+    public int indexOf(int id) {
+        return indexOf.getOrDefault(id, -1);
+    }
+
+    /**
+     * @param  index  dense index in [0, P)
+     * @return        the label a cell collapsed to this pattern takes
+     */
+    public int centerLabel(int index) {
+        return centerLabel[index];
+    }
+
+    /**
+     * @param  index  dense index in [0, P)
+     * @return        degree of the pattern's center node in the training graph
+     */
+    public int degree(int index) {
+        return degree[index];
+    }
+
+    /**
+     * @param  index  dense index in [0, P)
+     * @return        number of training nodes whose ego-network matched this pattern
+     */
+    public int frequency(int index) {
+        return frequency[index];
+    }
+}
@@ -0,0 +1,314 @@
+package patterns;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Resource-Allocation (RA) scores of every radius=1 compatible pattern pair, computed
+ * once after training.
+ *
+ * For two patterns pA and pB the score is
+ *     RA = sum_{m in N1(pA) ∩ N1(pB)} 1 / |N1(m)|
+ * where N1(p) is the set of patterns adjacent to p at radius=1. It depends only on the
+ * pattern pair, so edge wiring reads it from here instead of intersecting two bit rows
+ * for every candidate cell pair.
+ *
+ * Scores are stored sparsely, one row per pattern in compressed form: row pA lists the
+ * radius=1 partners of pA in ascending index order (the order of
+ * {@link CompatibilityMatrix#nextCompatible}), each with its score. Every entry also
+ * carries a score level: the position of its score among all distinct scores, highest
+ * first. Equal scores share a level, so ordering candidates by level is exactly ordering
+ * them by descending score.
+ *
+ * A column index lists, for every pattern q, the entries of other rows whose partner is q
+ * (ordered by owning pattern), so the pairs in which q is the second pattern can be found
+ * without assuming the radius=1 table is symmetric.
+ */
+public final class ResourceAllocation {
+    /** rowStart[p] … rowStart[p+1]-1 are the entries of pattern p */
+    private final int[] rowStart;
+    private final int[] partner;
+    private final double[] score;
+    private final int[] level;
+    private final int levelCount;
+
+    /** owner[k] = pattern whose row holds entry k */
+    private final int[] owner;
+
+    /** columnStart[q] … columnStart[q+1]-1 index columnEntry, the entries whose partner is q */
+    private final int[] columnStart;
+    private final int[] columnEntry;
+
+    private ResourceAllocation(int[] rowStart, int[] partner, double[] score, int[] level, int levelCount) {
+        this.rowStart = rowStart;
+        this.partner = partner;
+        this.score = score;
+        this.level = level;
+        this.levelCount = levelCount;
+
+        int n = rowStart.length - 1;
+        this.owner = new int[partner.length];
+        this.columnStart = new int[n + 1];
+        for (int p = 0; p < n; p++) {
+            Arrays.fill(owner, rowStart[p], rowStart[p + 1], p);
+        }
+        for (int q : partner) {
+            columnStart[q + 1]++;
+        }
+        for (int q = 0; q < n; q++) {
+            columnStart[q + 1] += columnStart[q];
+        }
+        // Entries are visited in row order, so each column lists its owners in ascending order
+        this.columnEntry = new int[partner.length];
+        int[] fill = Arrays.copyOf(columnStart, n);
+        for (int k = 0; k < partner.length; k++) {
+            columnEntry[fill[partner[k]]++] = k;
+        }
+    }
+
+    /**
+     * Scores every radius=1 compatible pattern pair of the matrix.
+     *
+     * @param  compat  packed compatibility tables
+     * @return         the score table
+     */
+    public static ResourceAllocation build(CompatibilityMatrix compat) {
+        Objects.requireNonNull(compat, "compat must not be null");
+        int n = compat.patternCount();
+
+        // 1) Lay out one row per pattern over its radius=1 partners
+        int[] rowStart = new int[n + 1];
+        for (int p = 0; p < n; p++) {
+            rowStart[p + 1] = rowStart[p] + compat.degree(1, p);
+        }
+        int[] partner = new int[rowStart[n]];
+        double[] score = new double[rowStart[n]];
+
+        // 2) Score each unordered pair once and mirror it into the partner's row
+        //    (the intersection is walked in the same order either way, so the sums are identical)
+        for (int pA = 0; pA < n; pA++) {
+            int k = rowStart[pA];
+            for (int pB = compat.nextCompatible(1, pA, 0); pB >= 0; pB = compat.nextCompatible(1, pA, pB + 1)) {
+                partner[k] = pB;
+                score[k] = pB < pA && compat.compatible(1, pB, pA)
+                        ? score[find(rowStart, partner, pB, pA)]
+                        : computeScore(compat, pA, pB);
+                k++;
+            }
+        }
+
+        // 3) Rank the distinct scores, highest first
+        double[] distinct = score.clone();
+        Arrays.sort(distinct);
+        int levels = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (levels == 0 || Double.compare(distinct[i], distinct[levels - 1]) != 0) {
+                distinct[levels++] = distinct[i];
+            }
+        }
+        int[] level = new int[score.length];
+        for (int k = 0; k < score.length; k++) {
+            level[k] = levels - 1 - Arrays.binarySearch(distinct, 0, levels, score[k]);
+        }
+        return new ResourceAllocation(rowStart, partner, score, level, levels);
+    }
+
+    /**
+     * Writes the table as P, the entry count and the level count followed by the row
+     * offsets, partners, scores and levels. The owner and column indexes are rebuilt on reading.
+     *
+     * @param  out  destination
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(rowStart.length - 1);
+        out.writeInt(partner.length);
+        out.writeInt(levelCount);
+        for (int offset : rowStart) {
+            out.writeInt(offset);
+        }
+        for (int q : partner) {
+            out.writeInt(q);
+        }
+        for (double s : score) {
+            out.writeDouble(s);
+        }
+        for (int l : level) {
+            out.writeInt(l);
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(DataOutput)}, advancing the buffer past it.
+     *
+     * @param  in  big-endian source positioned at the table
+     * @return     the score table
+     * @throws IllegalArgumentException if the stored sizes are negative or exceed the buffer,
+     *                                  or the row offsets, partners or levels are out of range
+     */
+    public static ResourceAllocation readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        int entries = in.getInt();
+        int levels = in.getInt();
+        long bytes = (n + 1L) * Integer.BYTES + (long) entries * (2 * Integer.BYTES + Double.BYTES);
+        if (n < 0 || entries < 0 || levels < 0 || bytes > in.remaining()) {
+            throw new IllegalArgumentException("Table size " + n + ", " + entries + ", " + levels
+                    + " does not fit the remaining data");
+        }
+        int[] rowStart = new int[n + 1];
+        int[] partner = new int[entries];
+        double[] score = new double[entries];
+        int[] level = new int[entries];
+        for (int[] table : new int[][]{rowStart, partner}) {
+            in.asIntBuffer().get(table);
+            in.position(in.position() + table.length * Integer.BYTES);
+        }
+        in.asDoubleBuffer().get(score);
+        in.position(in.position() + entries * Double.BYTES);
+        in.asIntBuffer().get(level);
+        in.position(in.position() + entries * Integer.BYTES);
+
+        // Offsets, partners and levels index other tables, so reject them here rather than
+        // fail deep inside wiring
+        if (rowStart[0] != 0 || rowStart[n] != entries) {
+            throw new IllegalArgumentException("Row offsets span " + rowStart[0] + "…" + rowStart[n]
+                    + ", expected 0…" + entries);
+        }
+        for (int p = 0; p < n; p++) {
+            if (rowStart[p] > rowStart[p + 1]) {
+                throw new IllegalArgumentException("Row offsets decrease at pattern " + p);
+            }
+        }
+        for (int k = 0; k < entries; k++) {
+            if (partner[k] < 0 || partner[k] >= n) {
+                throw new IllegalArgumentException("Partner " + partner[k] + " of entry " + k
+                        + " is not a pattern index below " + n);
+            }
+            if (level[k] < 0 || level[k] >= levels) {
+                throw new IllegalArgumentException("Level " + level[k] + " of entry " + k
+                        + " is not below the level count " + levels);
+            }
+        }
+        return new ResourceAllocation(rowStart, partner, score, level, levels);
+    }
+
+    /** Position of pB in the (already filled) row of pA. */
+    private static int find(int[] rowStart, int[] partner, int pA, int pB) {
+        return Arrays.binarySearch(partner, rowStart[pA], rowStart[pA + 1], pB);
+    }
+
+    private static double computeScore(CompatibilityMatrix compat, int pA, int pB) {
+        double score = 0.0;
+        for (int w = 0; w < compat.wordsPerRow(); w++) {
+            // Shared radius=1 neighbors of both patterns, one 64-bit word at a time
+            long shared = compat.word(1, pA, w) & compat.word(1, pB, w);
+            while (shared != 0) {
+                int m = (w << 6) + Long.numberOfTrailingZeros(shared);
+                shared &= shared - 1;
+                int deg = compat.degree(1, m);
+                if (deg > 0) {
+                    score += 1.0 / deg;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @return number of patterns P the table has rows for
+     */
+    public int patternCount() {
+        return rowStart.length - 1;
+    }
+
+    /**
+     * @param  p  pattern index
+     * @return    position of the first entry of p's row
+     */
+    public int rowStart(int p) {
+        return rowStart[p];
+    }
+
+    /**
+     * @param  p  pattern index
+     * @return    position one past the last entry of p's row
+     */
+    public int rowEnd(int p) {
+        return rowStart[p + 1];
+    }
+
+    /**
+     * @param  k  entry position
+     * @return    the radius=1 partner pattern of the entry
+     */
+    public int partner(int k) {
+        return partner[k];
+    }
+
+    /**
+     * @param  k  entry position
+     * @return    the pattern whose row holds the entry
+     */
+    public int owner(int k) {
+        return owner[k];
+    }
+
+    /**
+     * @param  q  pattern index
+     * @return    first position of q's column in {@link #columnEntry(int)}
+     */
+    public int columnStart(int q) {
+        return columnStart[q];
+    }
+
+    /**
+     * @param  q  pattern index
+     * @return    position one past the end of q's column
+     */
+    public int columnEnd(int q) {
+        return columnStart[q + 1];
+    }
+
+    /**
+     * @param  position  position inside some column
+     * @return           the entry at that position, whose partner is the column's pattern
+     */
+    public int columnEntry(int position) {
+        return columnEntry[position];
+    }
+
+    /**
+     * @param  k  entry position
+     * @return    the RA score of the entry's pattern pair
+     */
+    public double score(int k) {
+        return score[k];
+    }
+
+    /**
+     * @param  k  entry position
+     * @return    the score level of the entry (0 = highest score)
+     */
+    public int level(int k) {
+        return level[k];
+    }
+
+    /**
+     * @return number of distinct scores
+     */
+    public int levelCount() {
+        return levelCount;
+    }
+
+    /**
+     * @param  pA  first pattern index
+     * @param  pB  second pattern index
+     * @return     the RA score of the pair, or 0 if they are not radius=1 compatible
+     */
+    public double score(int pA, int pB) {
+        int k = find(rowStart, partner, pA, pB);
+        return k >= 0 ? score[k] : 0.0;
+    }
+}
@@ -0,0 +1,196 @@
+package wfc;
+
+import helper.LongHashSet;
+
+import java.util.Arrays;
+
+/**
+ * For every generated cell, the cells at each hop distance d in [1, radius] from it,
+ * kept up to date as edges are added.
+ *
+ * The generated graph only ever gains edges, so distances only shrink. Adding the edge
+ * (u, v) can only shorten paths that use it, and a shortest path uses a new edge at most
+ * once, so the new distance of any pair (a, b) is
+ *     min(d(a, b), d(a, u) + 1 + d(v, b), d(a, v) + 1 + d(u, b)).
+ * Only cells within radius−1 of u or v can be affected, and their candidates are read
+ * straight from the (pre-insertion) balls of u and v. Each insertion therefore costs
+ * |ball(u)| × |ball(v)| at most, independent of the size of the graph.
+ *
+ * Storage: one growable int row per (cell, distance), plus one hash entry per ordered pair
+ * (a, b) within radius, holding the current distance and the position of b in a's row so
+ * a cell can be moved to a shorter-distance row in O(1). Rows are in insertion order, with
+ * swap-removal when a cell moves closer, so iteration order is deterministic.
+ */
+final class BallIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final int radius;
+
+    /** rows[cell * radius + d - 1] = cells at distance d from cell; rowSize holds used lengths */
+    private int[][] rows = new int[0][];
+    private int[] rowSize = new int[0];
+    private int cellCount;
+
+    /** Ordered pairs within radius, keyed by {@link #pairKey(int, int)}; per ordinal: distance and row position */
+    private final LongHashSet pairs = new LongHashSet();
+    private byte[] pairDist = new byte[16];
+    private int[] pairPos = new int[16];
+
+    /** Scratch copies of the two endpoint balls during an insertion */
+    private int[] scratchCells = new int[16];
+    private int[] scratchDist = new int[16];
+
+    /**
+     * @param radius largest distance to index (at most 127); 0 indexes nothing
+     */
+    BallIndex(int radius) {
+        if (radius < 0 || radius > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("radius must be in [0, 127]: " + radius);
+        }
+        this.radius = radius;
+    }
+
+    /**
+     * @return the largest indexed distance
+     */
+    int radius() {
+        return radius;
+    }
+
+    /**
+     * Registers the next cell id (ids are assigned 0, 1, 2, … as in the CellStore),
+     * with an empty ball.
+     */
+    void addCell() {
+        int needed = (cellCount + 1) * radius;
+        if (needed > rows.length) {
+            int capacity = Math.max(needed, rows.length * 2);
+            int old = rows.length;
+            rows = Arrays.copyOf(rows, capacity);
+            rowSize = Arrays.copyOf(rowSize, capacity);
+            Arrays.fill(rows, old, capacity, EMPTY);
+        }
+        cellCount++;
+    }
+
+    /**
+     * @param  cell  cell id
+     * @param  d     distance in [1, radius]
+     * @return       number of cells at exactly distance d
+     */
+    int size(int cell, int d) {
+        return rowSize[cell * radius + d - 1];
+    }
+
+    /**
+     * @param  cell  cell id
+     * @param  d     distance in [1, radius]
+     * @param  k     position in [0, size(cell, d))
+     * @return       the k-th cell at distance d
+     */
+    int get(int cell, int d, int k) {
+        return rows[cell * radius + d - 1][k];
+    }
+
+    /**
+     * Updates all distances after the undirected edge (u, v) was added. Must be called
+     * once per new edge, with u ≠ v.
+     *
+     * @param u first endpoint
+     * @param v second endpoint
+     */
+    void edgeAdded(int u, int v) {
+        if (radius == 0) return;
+
+        // 1) Copy both balls out to radius−1 (with the endpoint itself at distance 0),
+        //    since relaxing pairs below moves cells between rows
+        int nu = collect(u, 0);
+        int nv = collect(v, nu);
+
+        // 2) Every pair (a, b) with d(a, u) + 1 + d(v, b) ≤ radius may have moved closer
+        for (int i = 0; i < nu; i++) {
+            int a = scratchCells[i], da = scratchDist[i];
+            for (int j = nu; j < nu + nv; j++) {
+                int nd = da + 1 + scratchDist[j];
+                if (nd > radius) continue;
+                int b = scratchCells[j];
+                if (a == b) continue;
+                relax(a, b, nd);
+                relax(b, a, nd);
+            }
+        }
+    }
+
+    /** Appends cell and every cell within radius−1 of it to the scratch arrays from position at. */
+    private int collect(int cell, int at) {
+        int n = at;
+        n = put(n, cell, 0);
+        for (int d = 1; d < radius; d++) {
+            int row = cell * radius + d - 1;
+            int[] members = rows[row];
+            for (int k = 0, size = rowSize[row]; k < size; k++) {
+                n = put(n, members[k], d);
+            }
+        }
+        return n - at;
+    }
+
+    private int put(int n, int cell, int d) {
+        if (n == scratchCells.length) {
+            scratchCells = Arrays.copyOf(scratchCells, n * 2);
+            scratchDist = Arrays.copyOf(scratchDist, n * 2);
+        }
+        scratchCells[n] = cell;
+        scratchDist[n] = d;
+        return n + 1;
+    }
+
+    /** Records that b is at distance nd from a, if that is closer than before. */
+    private void relax(int a, int b, int nd) {
+        long key = pairKey(a, b);
+        int ordinal = pairs.indexOf(key);
+        if (ordinal >= 0) {
+            int old = pairDist[ordinal];
+            if (old <= nd) return;
+            removeFromRow(a, old, pairPos[ordinal]);
+        } else {
+            ordinal = pairs.add(key);
+            if (ordinal == pairDist.length) {
+                pairDist = Arrays.copyOf(pairDist, ordinal * 2);
+                pairPos = Arrays.copyOf(pairPos, ordinal * 2);
+            }
+        }
+        pairDist[ordinal] = (byte) nd;
+        pairPos[ordinal] = append(a, nd, b);
+    }
+
+    /** Appends b to the row of (a, d) and returns its position. */
+    private int append(int a, int d, int b) {
+        int row = a * radius + d - 1;
+        int[] members = rows[row];
+        int size = rowSize[row];
+        if (size == members.length) {
+            members = Arrays.copyOf(members, Math.max(4, size * 2));
+            rows[row] = members;
+        }
+        members[size] = b;
+        rowSize[row] = size + 1;
+        return size;
+    }
+
+    /** Swap-removes the entry at position pos from the row of (a, d). */
+    private void removeFromRow(int a, int d, int pos) {
+        int row = a * radius + d - 1;
+        int[] members = rows[row];
+        int last = --rowSize[row];
+        if (pos != last) {
+            int moved = members[last];
+            members[pos] = moved;
+            pairPos[pairs.indexOf(pairKey(a, moved))] = pos;
+        }
+    }
+
+    private static long pairKey(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+}
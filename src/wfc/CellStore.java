@@ -0,0 +1,377 @@
+package wfc;
+
+import helper.LongHashSet;
+import patterns.CompatibilityMatrix;
+
+import java.util.Arrays;
+
+/**
+ * All generation state of the WFC cells, stored as parallel primitive arrays indexed by
+ * an int cell id (0, 1, 2, … in creation order).
+ *
+ * For each cell the store holds:
+ * - its domain of possible pattern indices (released once the cell collapses)
+ * - the collapsed pattern index (-1 while uncollapsed) and center label
+ * - its degree target (the original degree of the collapsed pattern)
+ * - its neighbors, as a growable int array whose used length is the current degree
+ *
+ * Every undirected edge is also kept once in a hash set of packed {@code long} keys
+ * (smaller id in the high half), so {@link #isAdjacent(int, int)} is O(1) however large
+ * the degree of a hub cell grows, and {@link #addEdge(int, int)} never stores an edge twice.
+ *
+ * The store also maintains the ball of every cell: the cells at each hop distance up to a
+ * fixed radius (the largest compatibility radius), updated locally on every new edge. Constraint
+ * propagation and edge validation read neighborhoods from it instead of running a BFS.
+ *
+ * Collapsed cells are also recorded in collapse order, which is the order the generated
+ * graph is exported in. Edge wiring only needs to revisit collapsed cells whose wiring
+ * state changed, so the store journals every collapsed cell that collapsed, gained an
+ * edge or got a new degree target until {@link #drainChanged()} hands them out. Keeping everything in a few arrays instead of one object and
+ * several identity-hashed map entries per cell keeps the footprint of large generated
+ * graphs to a few dozen bytes per cell plus its neighbor slots.
+ */
+public final class CellStore {
+    private static final int[] NO_NEIGHBORS = new int[0];
+
+    private int size;
+
+    /** Per-cell state, valid for ids in [0, size). */
+    private Domain[] domains = new Domain[16];
+    private int[] collapsedPattern = new int[16];
+    private int[] centerLabel = new int[16];
+    private int[] degreeTarget = new int[16];
+    private int[] degree = new int[16];
+    private int[][] neighbors = new int[16][];
+
+    /** Every edge once, keyed by {@link #edgeKey(int, int)}. */
+    private final LongHashSet edges = new LongHashSet();
+
+    /** Cells at each distance ≤ the ball radius, per cell. */
+    private final BallIndex balls;
+
+    /** Collapsed cell ids in collapse order, and each cell's position in it (-1 while uncollapsed). */
+    private int[] settled = new int[16];
+    private int settledCount;
+    private int[] settledIndex = new int[16];
+
+    /** Collapsed cells whose wiring state changed since the last drain, each once. */
+    private int[] changed = new int[16];
+    private int changedCount;
+    private boolean[] isChanged = new boolean[16];
+
+    /**
+     * @param ballRadius  largest hop distance kept in each cell's ball (the largest
+     *                    compatibility radius); 0 keeps no balls
+     */
+    public CellStore(int ballRadius) {
+        this.balls = new BallIndex(ballRadius);
+    }
+
+    /**
+     * Creates a new uncollapsed, unconnected cell.
+     *
+     * @param  initialPatterns  domain of all pattern indices allowed initially (copied)
+     * @return                  the id of the new cell
+     */
+    public int addCell(Domain initialPatterns) {
+        if (size == domains.length) {
+            int capacity = size * 2;
+            domains = Arrays.copyOf(domains, capacity);
+            collapsedPattern = Arrays.copyOf(collapsedPattern, capacity);
+            centerLabel = Arrays.copyOf(centerLabel, capacity);
+            degreeTarget = Arrays.copyOf(degreeTarget, capacity);
+            degree = Arrays.copyOf(degree, capacity);
+            neighbors = Arrays.copyOf(neighbors, capacity);
+            settledIndex = Arrays.copyOf(settledIndex, capacity);
+            isChanged = Arrays.copyOf(isChanged, capacity);
+        }
+        int cell = size++;
+        domains[cell] = initialPatterns.copy();
+        collapsedPattern[cell] = -1;
+        settledIndex[cell] = -1;
+        neighbors[cell] = NO_NEIGHBORS;
+        balls.addCell();
+        return cell;
+    }
+
+    /**
+     * @return number of cells created so far (collapsed or not)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       the current possible pattern indices (read-only outside this package)
+     * @throws IllegalStateException if the cell is already collapsed
+     */
+    public Domain domain(int cell) {
+        if (isCollapsed(cell)) throw new IllegalStateException("Cell " + cell + " is already collapsed");
+        return domains[cell];
+    }
+
+    /**
+     * Prune a cell's possibilities, keeping only patterns compatible with the given
+     * pattern at the given radius.
+     *
+     * @param  cell     cell id
+     * @param  compat   compatibility matrix over the dense pattern index
+     * @param  radius   distance between this cell and the constraining pattern
+     * @param  pattern  index of the constraining pattern
+     * @return          true if any possibility was removed
+     * @throws IllegalStateException if the cell is already collapsed
+     */
+    public boolean prune(int cell, CompatibilityMatrix compat, int radius, int pattern) {
+        return domain(cell).retainAll(compat, radius, pattern);
+    }
+
+    /**
+     * Collapse a cell to a single pattern index and record its center label. After
+     * collapsing, the cell is fixed: its domain is released and it is appended to the
+     * settled order.
+     *
+     * @param  cell         cell id
+     * @param  pattern      the index to collapse to; must currently be possible
+     * @param  label        the center label of the chosen pattern
+     * @throws IllegalArgumentException if pattern is not in the current possibilities
+     * @throws IllegalStateException    if the cell is already collapsed
+     */
+    public void collapse(int cell, int pattern, int label) {
+        if (!domain(cell).contains(pattern)) {
+            throw new IllegalArgumentException("Cannot collapse to non-possible pattern: " + pattern);
+        }
+        collapsedPattern[cell] = pattern;
+        centerLabel[cell] = label;
+        domains[cell] = null;
+        if (settledCount == settled.length) {
+            settled = Arrays.copyOf(settled, settledCount * 2);
+        }
+        settledIndex[cell] = settledCount;
+        settled[settledCount++] = cell;
+        recordChange(cell);
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       true if the cell has been collapsed to exactly one pattern
+     */
+    public boolean isCollapsed(int cell) {
+        return collapsedPattern[cell] >= 0;
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       the pattern index the cell collapsed to
+     * @throws IllegalStateException if the cell is not yet collapsed
+     */
+    public int collapsedPattern(int cell) {
+        if (!isCollapsed(cell)) throw new IllegalStateException("Cell " + cell + " not yet collapsed");
+        return collapsedPattern[cell];
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       the center label of the collapsed pattern
+     * @throws IllegalStateException if the cell is not yet collapsed
+     */
+    public int centerLabel(int cell) {
+        if (!isCollapsed(cell)) throw new IllegalStateException("Cell " + cell + " not yet collapsed");
+        return centerLabel[cell];
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       desired number of edges (0 until a target is set)
+     */
+    public int degreeTarget(int cell) {
+        return degreeTarget[cell];
+    }
+
+    /**
+     * @param cell    cell id
+     * @param target  desired number of edges
+     */
+    public void setDegreeTarget(int cell, int target) {
+        if (degreeTarget[cell] == target) return;
+        degreeTarget[cell] = target;
+        if (isCollapsed(cell)) {
+            recordChange(cell);
+        }
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       number of edge slots still open (degree target minus degree, at least 0)
+     */
+    public int openStubs(int cell) {
+        return Math.max(0, degreeTarget[cell] - degree[cell]);
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       current number of neighbors
+     */
+    public int degree(int cell) {
+        return degree[cell];
+    }
+
+    /**
+     * @param  cell  cell id
+     * @param  k     neighbor position in [0, degree(cell)), in the order edges were added
+     * @return       the k-th neighbor of the cell
+     */
+    public int neighbor(int cell, int k) {
+        return neighbors[cell][k];
+    }
+
+    /**
+     * @param  u  cell id
+     * @param  v  cell id
+     * @return    true if v is a neighbor of u
+     */
+    public boolean isAdjacent(int u, int v) {
+        return edges.contains(edgeKey(u, v));
+    }
+
+    /**
+     * Adds an undirected edge, appending each endpoint to the other's neighbors.
+     * Self-loops and edges that already exist are ignored.
+     *
+     * @param  u  first endpoint
+     * @param  v  second endpoint
+     * @return    true if the edge was added
+     */
+    public boolean addEdge(int u, int v) {
+        if (u == v) return false;
+        int before = edges.size();
+        edges.add(edgeKey(u, v));
+        if (edges.size() == before) return false;
+        append(u, v);
+        append(v, u);
+        balls.edgeAdded(u, v);
+        if (isCollapsed(u)) {
+            recordChange(u);
+        }
+        if (isCollapsed(v)) {
+            recordChange(v);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of undirected edges
+     */
+    public int edgeCount() {
+        return edges.size();
+    }
+
+    private static long edgeKey(int u, int v) {
+        return u < v
+                ? ((long) u << 32) | (v & 0xFFFFFFFFL)
+                : ((long) v << 32) | (u & 0xFFFFFFFFL);
+    }
+
+    private void append(int cell, int nbr) {
+        int[] row = neighbors[cell];
+        int d = degree[cell];
+        if (d == row.length) {
+            row = Arrays.copyOf(row, Math.max(4, d * 2));
+            neighbors[cell] = row;
+        }
+        row[d] = nbr;
+        degree[cell] = d + 1;
+    }
+
+    /**
+     * @return largest hop distance kept in the balls
+     */
+    public int ballRadius() {
+        return balls.radius();
+    }
+
+    /**
+     * @param  cell  cell id
+     * @param  d     hop distance in [1, ballRadius()]
+     * @return       number of cells whose shortest distance from the cell is exactly d
+     */
+    public int ballSize(int cell, int d) {
+        return balls.size(cell, d);
+    }
+
+    /**
+     * @param  cell  cell id
+     * @param  d     hop distance in [1, ballRadius()]
+     * @param  k     position in [0, ballSize(cell, d))
+     * @return       the k-th cell at distance d from the cell (in no particular order)
+     */
+    public int ballCell(int cell, int d, int k) {
+        return balls.get(cell, d, k);
+    }
+
+    /**
+     * @return number of collapsed cells
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * @param  k  position in [0, settledCount())
+     * @return    the k-th collapsed cell, in collapse order
+     */
+    public int settled(int k) {
+        return settled[k];
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       position of the cell in collapse order, or -1 if it is not collapsed
+     */
+    public int settledIndex(int cell) {
+        return settledIndex[cell];
+    }
+
+    /**
+     * Returns every collapsed cell that collapsed, gained an edge or got a new degree target
+     * since the previous call, each once in the order of its first change, and starts a new
+     * record.
+     *
+     * @return the changed collapsed cells
+     */
+    public int[] drainChanged() {
+        int[] out = Arrays.copyOf(changed, changedCount);
+        for (int cell : out) {
+            isChanged[cell] = false;
+        }
+        changedCount = 0;
+        return out;
+    }
+
+    private void recordChange(int cell) {
+        if (isChanged[cell]) return;
+        isChanged[cell] = true;
+        if (changedCount == changed.length) {
+            changed = Arrays.copyOf(changed, changedCount * 2);
+        }
+        changed[changedCount++] = cell;
+    }
+
+    /**
+     * Sums the open edge slots (“stubs”) across all collapsed cells.
+     *
+     * @return total number of missing edges across all collapsed cells
+     */
+    public int countOpenStubs() {
+        int open = 0;
+        for (int k = 0; k < settledCount; k++) {
+            open += openStubs(settled[k]);
+        }
+        return open;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CellStore[%d cells, %d edges, %d collapsed]", size, edges.size(), settledCount);
+    }
+}
@@ -1,6 +1,6 @@
 package wfc;
 
-import patterns.PatternCompatibility;
+import patterns.CompatibilityMatrix;
 
 import java.util.*;
 
@@ -13,28 +13,32 @@ import java.util.*;
  * at distances 1 through maxRadius must only allow patterns that were observed
  * to be compatible with it during training.
  *
- * To accomplish this, the class relies on a compatibility table:
- * a nested mapping from radius → (pattern ID → set of compatible pattern IDs).
+ * To accomplish this, the class relies on a compatibility matrix holding, for
+ * each radius, one bit row per pattern index listing its compatible pattern indices.
  * For each radius r, and for every collapsed pattern, the table specifies which
  * other patterns were seen at that distance during pattern extraction.
  *
- * The propagation logic is implemented using a breadth-first traversal (BFS)
- * starting from one or more collapsed seed cells. At each step, the algorithm:
+ * Propagation from a collapsed seed cell reads the seed's ball from the CellStore:
+ * the cells at each shortest-path distance d (from 1 up to maxRadius), maintained
+ * incrementally as edges are added. For each distance d, the algorithm:
  *
- * 1. Traverses the cell graph outwards layer by layer using the adjacency structure.
- * 2. At each radius d (from 1 up to maxRadius), checks whether the current neighbor
- *    is uncollapsed and, if so, intersects its possible patterns with the set of
+ * 1. Visits every cell at exactly distance d from the seed.
+ * 2. If the cell is uncollapsed, intersects its possible patterns with the set of
  *    patterns compatible with the collapsed seed's pattern at distance d.
- * 3. Ensures that only uncollapsed neighbors are pruned. Collapsed cells are ignored,
- *    and nodes already visited are not revisited.
+ * 3. Ensures that only uncollapsed cells are pruned. Collapsed cells are ignored.
  *
- * This process ensures directional and bounded propagation—each iteration pushes
- * the compatibility constraints outward in expanding layers without ever revisiting
- * shallower nodes. The use of explicit depth tracking during BFS (rather than relying
- * on layer metadata) guarantees that propagation respects spatial context correctly.
+ * Every cell is pruned exactly once per seed, at its shortest distance, so the
+ * constraints match what a layer-by-layer BFS from the seed would apply, without
+ * traversing the graph.
  *
- * After all propagation is complete, the class returns the list of uncollapsed cells
- * whose domains have now shrunk to exactly one pattern. These "forced" cells can be
+ * Propagation is worklist-driven. Callers report what changed—newly collapsed cells
+ * via markCollapsed, and cells that gained an edge or a child via markChanged—and
+ * propagate() only seeds from those cells (and from the collapsed cells whose
+ * neighborhood the change reaches). Re-propagating from an unchanged neighborhood
+ * could never prune anything new, so untouched parts of the graph are skipped.
+ *
+ * Every uncollapsed cell whose domain shrinks to exactly one pattern is recorded
+ * the moment it happens and returned from propagate(). These "forced" cells can be
  * safely collapsed in the next step of the algorithm.
  *
  * Note: This propagation does not collapse cells or change the collapsed state.
@@ -44,110 +48,178 @@ import java.util.*;
 
 public class ConstraintPropagator {
 
-    /** Compatibility table: radius → (patternId → set of compatible patternIds) */
-    private final Map<Integer, Map<Integer, Set<Integer>>> compat;
+    /** Compatibility bit rows: radius → (pattern index → compatible pattern indices) */
+    private final CompatibilityMatrix compat;
 
-    /** Maximum radius of compatibility propagation (largest radius key in the compat map) */
+    /** Maximum radius of compatibility propagation (largest radius in the matrix) */
     private final int maxRadius;
 
+    /** Generated cells and their adjacency */
+    private final CellStore cells;
+
+    /** Collapsed cells still to propagate from, in the order they were queued */
+    private final Worklist pendingSeeds = new Worklist();
+
+    /** Cells whose neighborhood gained an edge since the last propagation */
+    private final Worklist changed = new Worklist();
+
     /**
-     * Constructs a new propagator with compatibility data grouped by radius.
+     * Constructs a new propagator over packed per-radius compatibility rows.
      *
-     * @param compatByRadius map of radius → (patternId → compatible IDs)
+     * @param compat compatibility matrix over the dense pattern index
+     * @param cells  cell store holding domains, adjacency and balls
+     * @throws IllegalArgumentException if the store's balls are smaller than the largest radius
      */
-    public ConstraintPropagator(Map<Integer, Map<Integer, Set<Integer>>> compatByRadius) {
-        this.compat = Objects.requireNonNull(compatByRadius, "compat table must not be null");
-        this.maxRadius = compatByRadius.keySet()
-                .stream()
-                .max(Integer::compareTo)
-                .orElse(0);
+    public ConstraintPropagator(CompatibilityMatrix compat, CellStore cells) {
+        this.compat = Objects.requireNonNull(compat, "compat table must not be null");
+        this.cells = Objects.requireNonNull(cells, "cells must not be null");
+        this.maxRadius = compat.maxRadius();
+        if (cells.ballRadius() < maxRadius) {
+            throw new IllegalArgumentException("CellStore balls reach " + cells.ballRadius()
+                    + " hops, propagation needs " + maxRadius);
+        }
     }
 
     /**
-     * Prunes uncollapsed cells using all collapsed seeds.
-     * Performs propagation from each collapsed cell outward,
-     * and returns any uncollapsed cells that now have exactly one pattern remaining.
+     * Queues a newly collapsed cell as a propagation seed.
      *
-     * @param collapsedCells   list of already collapsed cells (used as seeds)
-     * @param uncollapsedCells list of cells still containing multiple options
-     * @param adjacency        undirected adjacency map (Cell → neighbor Cells)
-     * @return list of newly forced cells (now have only one possible pattern)
+     * @param cell id of a cell that has just been collapsed
      */
-    public List<Cell> propagate(List<Cell> collapsedCells,
-                                List<Cell> uncollapsedCells,
-                                Map<Cell, List<Cell>> adjacency) {
-        for (Cell seed : collapsedCells) {
-            propagateFrom(seed, adjacency);
+    public void markCollapsed(int cell) {
+        pendingSeeds.add(cell);
+    }
+
+    /**
+     * Records that a cell gained a neighbor (a new edge from Connect, or a child
+     * attached by expansion). Every collapsed cell within maxRadius−1 of it may now
+     * reach new cells or reach cells at a shorter distance, so all of them are
+     * re-seeded on the next {@link #propagate} call.
+     *
+     * @param cell id of an endpoint of a newly added edge
+     */
+    public void markChanged(int cell) {
+        changed.add(cell);
+    }
+
+    /**
+     * Drains the worklist: propagates from every queued seed and from every collapsed
+     * cell near a changed neighborhood, and returns the uncollapsed cells that were
+     * pruned down to exactly one pattern along the way.
+     *
+     * Cells that were not touched since the last call are never visited, so the cost
+     * scales with the size of the change rather than with the size of the graph.
+     *
+     * @param uncollapsedCells frontier of cells still containing multiple options; told
+     *                         about every pruned cell so its entropy key stays current
+     * @return ids of newly forced cells (now have only one possible pattern)
+     */
+    public int[] propagate(Frontier uncollapsedCells) {
+        for (int i = 0; i < changed.size(); i++) {
+            seedCollapsedWithin(changed.get(i), maxRadius - 1);
         }
+        changed.clear();
 
-        // Collect uncollapsed cells that are now fully constrained
-        List<Cell> forced = new ArrayList<>();
-        for (Cell c : uncollapsedCells) {
-            if (c.getPossiblePatterns().size() == 1) {
-                forced.add(c);
+        // Forced cells are recorded the moment a prune leaves a single pattern
+        Worklist forced = new Worklist();
+        for (int i = 0; i < pendingSeeds.size(); i++) {
+            propagateFrom(pendingSeeds.get(i), uncollapsedCells, forced);
+        }
+        pendingSeeds.clear();
+
+        // A later prune may have emptied a cell that was forced earlier in this pass
+        int[] out = new int[forced.size()];
+        int n = 0;
+        for (int i = 0; i < forced.size(); i++) {
+            int cell = forced.get(i);
+            if (cells.domain(cell).size() == 1) {
+                out[n++] = cell;
             }
         }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
 
-        return forced;
+    /**
+     * Queues every collapsed cell within the given distance of a cell (itself included).
+     *
+     * @param origin    id of the cell whose neighborhood changed
+     * @param radius    maximum hop distance
+     */
+    private void seedCollapsedWithin(int origin, int radius) {
+        if (radius < 0) return;
+        if (cells.isCollapsed(origin)) {
+            pendingSeeds.add(origin);
+        }
+        for (int d = 1; d <= radius; d++) {
+            for (int k = 0, n = cells.ballSize(origin, d); k < n; k++) {
+                int cell = cells.ballCell(origin, d, k);
+                if (cells.isCollapsed(cell)) {
+                    pendingSeeds.add(cell);
+                }
+            }
+        }
     }
 
     /**
-     * Performs BFS propagation from a single collapsed cell.
-     * Uses the compatibility map to prune each neighbor's domain at radius d.
+     * Propagates from a single collapsed cell over its ball.
+     * Uses the compatibility row of the seed's pattern at radius d to prune each cell at distance d.
      *
-     * @param seed      collapsed cell (must already be collapsed)
-     * @param adjacency cell adjacency map
+     * @param seed      id of a collapsed cell (must already be collapsed)
+     * @param frontier  frontier whose keys are refreshed for every pruned cell
+     * @param forced    receives every cell pruned down to a single pattern
      * @throws IllegalArgumentException if the seed is not yet collapsed
      */
-    private void propagateFrom(Cell seed,
-                               Map<Cell, List<Cell>> adjacency) {
-        if (!seed.isCollapsed()) {
+    private void propagateFrom(int seed,
+                               Frontier frontier,
+                               Worklist forced) {
+        if (!cells.isCollapsed(seed)) {
             throw new IllegalArgumentException("Seed must be collapsed before propagation");
         }
 
-        int seedPattern = seed.getCollapsedPattern();
-
-        Queue<NodeDist> queue = new ArrayDeque<>();
-        Set<Cell> visited = new HashSet<>();
-
-        queue.add(new NodeDist(seed, 0));
-        visited.add(seed);
-
-        while (!queue.isEmpty()) {
-            NodeDist current = queue.remove();
-            int dist = current.dist;
-
-            if (dist >= maxRadius) continue;
-
-            for (Cell neighbor : adjacency.getOrDefault(current.cell, Collections.emptyList())) {
-                if (!visited.add(neighbor)) continue;
-
-                int nextDist = dist + 1;
-
-                if (!neighbor.isCollapsed()) {
-                    Map<Integer, Set<Integer>> table = compat.get(nextDist);
-                    Set<Integer> allowed = (table != null) ? table.get(seedPattern) : null;
-
-                    if (allowed != null) {
-                        neighbor.prune(allowed);
+        int seedPattern = cells.collapsedPattern(seed);
+        for (int d = 1; d <= maxRadius; d++) {
+            if (!compat.hasRow(d, seedPattern)) continue;
+            for (int k = 0, n = cells.ballSize(seed, d); k < n; k++) {
+                int cell = cells.ballCell(seed, d, k);
+                if (!cells.isCollapsed(cell) && cells.prune(cell, compat, d, seedPattern)) {
+                    frontier.update(cell);
+                    if (cells.domain(cell).size() == 1) {
+                        forced.add(cell);
                     }
                 }
-
-                queue.add(new NodeDist(neighbor, nextDist));
             }
         }
     }
 
     /**
-     * Utility class used to store cell + distance during BFS traversal.
+     * Insertion-ordered set of cell ids: adding an id that is already queued is a no-op.
      */
-    private static class NodeDist {
-        final Cell cell;
-        final int dist;
+    private static final class Worklist {
+        private int[] items = new int[16];
+        private int size;
+        private final BitSet queued = new BitSet();
+
+        void add(int cell) {
+            if (queued.get(cell)) return;
+            queued.set(cell);
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = cell;
+        }
 
-        NodeDist(Cell c, int d) {
-            this.cell = c;
-            this.dist = d;
+        int get(int i) {
+            return items[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                queued.clear(items[i]);
+            }
+            size = 0;
         }
     }
 }
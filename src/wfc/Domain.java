@@ -0,0 +1,304 @@
+package wfc;
+
+import patterns.CompatibilityMatrix;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of dense pattern indices in [0, universe) used as the domain of a cell in a {@link CellStore}.
+ *
+ * Large domains are stored as a {@code long[]} bitset, so pruning against a compatibility
+ * row is a word-wise AND and the size is maintained from popcounts. Once a domain has
+ * shrunk to at most one element per bitset word, it switches to a sorted {@code int[]} of its
+ * members, which is smaller and cheaper to iterate. Domains only ever shrink, so the
+ * sparse form is never converted back.
+ *
+ * Each domain also carries running sums Σw and Σw·log w over the per-pattern weights it
+ * was created with (the training frequencies). They are adjusted for every index a prune
+ * removes, so reading the entropy of a domain never iterates its members.
+ *
+ * Mutating operations are package-private: outside the wfc package a domain can only be
+ * read, and all changes go through {@link CellStore}.
+ */
+public final class Domain {
+    private final int universe;
+
+    /** Bitset form; null once the domain has switched to the sparse form. */
+    private long[] words;
+
+    /** Sparse form: sorted member indices, of which the first {@code count} are valid. */
+    private int[] members;
+
+    private int count;
+
+    /** Per-pattern weight w and w·log w, shared by every domain copied from the same template. */
+    private final double[] weight;
+    private final double[] weightLogWeight;
+
+    /** Running Σw and Σw·log w over the current members. */
+    private double weightSum;
+    private double weightLogWeightSum;
+
+    private Domain(int universe, long[] words, int[] members, int count,
+                   double[] weight, double[] weightLogWeight,
+                   double weightSum, double weightLogWeightSum) {
+        this.universe = universe;
+        this.words = words;
+        this.members = members;
+        this.count = count;
+        this.weight = weight;
+        this.weightLogWeight = weightLogWeight;
+        this.weightSum = weightSum;
+        this.weightLogWeightSum = weightLogWeightSum;
+    }
+
+    /**
+     * Creates a domain containing every pattern index, weighted for entropy.
+     *
+     * @param  weight           per-pattern weight w (the universe is its length)
+     * @param  weightLogWeight  per-pattern w·log w, same length as weight
+     * @return                  a new, full domain
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public static Domain full(double[] weight, double[] weightLogWeight) {
+        if (weight.length != weightLogWeight.length) {
+            throw new IllegalArgumentException("weight arrays must have the same length");
+        }
+        int universe = weight.length;
+        long[] w = new long[wordCount(universe)];
+        Arrays.fill(w, -1L);
+        int tail = universe & 63;
+        if (tail != 0) {
+            w[w.length - 1] = (1L << tail) - 1;
+        }
+        Domain d = new Domain(universe, w, null, universe, weight, weightLogWeight, 0.0, 0.0);
+        d.resum();
+        return d.compactIfSparse();
+    }
+
+    /**
+     * @return an independent copy of this domain
+     */
+    public Domain copy() {
+        return new Domain(universe,
+                words == null ? null : words.clone(),
+                members == null ? null : Arrays.copyOf(members, count),
+                count, weight, weightLogWeight, weightSum, weightLogWeightSum);
+    }
+
+    /**
+     * @return number of indices in the dense pattern index this domain ranges over
+     */
+    public int universe() {
+        return universe;
+    }
+
+    /**
+     * @return number of member indices
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Σw over the current members
+     */
+    public double weightSum() {
+        return weightSum;
+    }
+
+    /**
+     * @return Σw·log w over the current members
+     */
+    public double weightLogWeightSum() {
+        return weightLogWeightSum;
+    }
+
+    /**
+     * @return true if no index remains
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param  index  dense pattern index
+     * @return        true if the index is a member
+     */
+    public boolean contains(int index) {
+        if (index < 0 || index >= universe) return false;
+        if (words != null) {
+            return (words[index >>> 6] & (1L << index)) != 0;
+        }
+        return Arrays.binarySearch(members, 0, count, index) >= 0;
+    }
+
+    /**
+     * @return the smallest member index
+     * @throws IllegalStateException if the domain is empty
+     */
+    public int first() {
+        if (count == 0) throw new IllegalStateException("Domain is empty");
+        if (words == null) return members[0];
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(words[w]);
+            }
+        }
+        throw new IllegalStateException("Domain count out of sync");
+    }
+
+    /**
+     * Visits every member index in ascending order.
+     *
+     * @param action callback receiving each member index
+     */
+    public void forEach(IntConsumer action) {
+        if (words == null) {
+            for (int i = 0; i < count; i++) {
+                action.accept(members[i]);
+            }
+            return;
+        }
+        for (int w = 0; w < words.length; w++) {
+            long bits = words[w];
+            while (bits != 0) {
+                action.accept((w << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * @return member indices in ascending order
+     */
+    public int[] toArray() {
+        if (words == null) return Arrays.copyOf(members, count);
+        int[] out = new int[count];
+        int[] k = {0};
+        forEach(i -> out[k[0]++] = i);
+        return out;
+    }
+
+    /**
+     * Keeps only the indices set in one row of a compatibility matrix.
+     *
+     * @param  compat   compatibility matrix over the same pattern universe
+     * @param  radius   radius of the row
+     * @param  pattern  pattern index owning the row
+     * @return          true if any index was removed
+     */
+    boolean retainAll(CompatibilityMatrix compat, int radius, int pattern) {
+        if (compat.patternCount() != universe) {
+            throw new IllegalArgumentException("Compatibility matrix ranges over a different pattern universe");
+        }
+        int before = count;
+        if (words != null) {
+            // Word-wise AND, keeping the count and sums in sync from the removed bits
+            for (int w = 0; w < words.length; w++) {
+                long old = words[w];
+                long now = old & compat.word(radius, pattern, w);
+                if (now != old) {
+                    long removed = old & ~now;
+                    count -= Long.bitCount(removed);
+                    words[w] = now;
+                    while (removed != 0) {
+                        subtract((w << 6) + Long.numberOfTrailingZeros(removed));
+                        removed &= removed - 1;
+                    }
+                }
+            }
+            compactIfSparse();
+        } else {
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int idx = members[i];
+                if (compat.compatible(radius, pattern, idx)) {
+                    members[n++] = idx;
+                } else {
+                    subtract(idx);
+                }
+            }
+            count = n;
+        }
+        return count != before;
+    }
+
+    /**
+     * Reduces this domain to the single given index.
+     *
+     * @param index dense pattern index to keep; must currently be a member
+     */
+    void retainOnly(int index) {
+        words = null;
+        members = new int[]{index};
+        count = 1;
+        weightSum = weight[index];
+        weightLogWeightSum = weightLogWeight[index];
+    }
+
+    private void subtract(int index) {
+        weightSum -= weight[index];
+        weightLogWeightSum -= weightLogWeight[index];
+    }
+
+    /**
+     * Recomputes both sums exactly from the current members, discarding accumulated rounding.
+     */
+    private void resum() {
+        double s = 0.0, sl = 0.0;
+        if (words == null) {
+            for (int i = 0; i < count; i++) {
+                s += weight[members[i]];
+                sl += weightLogWeight[members[i]];
+            }
+        } else {
+            for (int w = 0; w < words.length; w++) {
+                long bits = words[w];
+                while (bits != 0) {
+                    int idx = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    s += weight[idx];
+                    sl += weightLogWeight[idx];
+                    bits &= bits - 1;
+                }
+            }
+        }
+        weightSum = s;
+        weightLogWeightSum = sl;
+    }
+
+    /**
+     * Switches to the sorted-array form once it needs no more space than the bitset words.
+     * The sums are recomputed on the switch, which is cheap at that size.
+     */
+    private Domain compactIfSparse() {
+        if (words != null && count <= words.length) {
+            int[] m = new int[count];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                long bits = words[w];
+                while (bits != 0) {
+                    m[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+            words = null;
+            members = m;
+            resum();
+        }
+        return this;
+    }
+
+    private static int wordCount(int universe) {
+        return (universe + 63) >>> 6;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner sj = new StringJoiner(", ", "[", "]");
+        forEach(i -> sj.add(Integer.toString(i)));
+        return sj.toString();
+    }
+}
@@ -1,59 +1,89 @@
 package wfc;
 
-import patterns.Pattern;
+import patterns.PatternIndex;
 
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * Computes entropy-based decisions for collapsing WFC cells.
  *
- * This class tracks a list of uncollapsed {@link Cell} objects, along with global
- * frequency statistics derived from training patterns. It uses Shannon entropy
+ * This class owns the {@link Frontier} of uncollapsed cells of a {@link CellStore}, along with
+ * global frequency statistics derived from training patterns. It uses Shannon entropy
  * to quantify uncertainty in each cell and selects the one with the lowest entropy
  * to collapse next.
  *
- * Entropy is calculated as a weighted sum over possible pattern IDs,
+ * Entropy is calculated as a weighted sum over possible pattern indices,
  * where each weight is proportional to that pattern's observed frequency.
  *
+ * The frontier is an indexed min-heap keyed by entropy, so selecting the next cell is
+ * a peek rather than a scan; a cell's key is refreshed whenever the frontier is told
+ * that its domain changed.
+ *
  * The class supports:
- * - Computing entropy for all uncollapsed cells
  * - Selecting the most "decided" (least uncertain) cell
  * - Collapsing that cell randomly, weighted by pattern frequency
  *
- * Note: This class does not mutate the list of uncollapsed cells—it assumes
- * external control of removal, addition, and adjacency propagation.
+ * Note: This class does not add or remove frontier cells—it assumes external
+ * control of removal, addition, and adjacency propagation.
  */
 public class Entropy {
 
-    /** List of uncollapsed cells (not yet fixed to one pattern). */
-    private final List<Cell> uncollapsedCells;
+    /** All generated cells; entropy is read from their domains. */
+    private final CellStore cells;
+
+    /** Uncollapsed cells (not yet fixed to one pattern), ordered by entropy. */
+    private final Frontier uncollapsedCells;
+
+    /** Frequency f per pattern index (used to weight entropy and sampling). */
+    private final double[] freq;
 
-    /** Frequency map: pattern ID → frequency count (used to weight entropy and sampling). */
-    private final Map<Integer, Integer> freq;
+    /** Precomputed f·log f per pattern index, maintained as a running sum inside each domain. */
+    private final double[] freqLogFreq;
 
-    /** Center label map: pattern ID → label (used when collapsing a cell). */
-    private final Map<Integer, Integer> centerLabel;
+    /** Dense pattern tables; supplies the center label when collapsing a cell. */
+    private final PatternIndex index;
 
     /** Random generator used to sample patterns during collapse (seeded for reproducibility). */
-    private final Random rand = new Random(42);
+    private final Random rand;
+
+    /**
+     * Initializes the entropy controller and an empty frontier keyed by entropy.
+     *
+     * @param index            dense index of all available patterns (with frequency and label)
+     * @param cells            the cell store whose uncollapsed cells form the frontier
+     * @param seed             seed of the random generator used to sample collapses
+     */
+    public Entropy(PatternIndex index, CellStore cells, long seed) {
+        this.index = Objects.requireNonNull(index, "index cannot be null");
+        this.cells = Objects.requireNonNull(cells, "cells cannot be null");
+        this.rand = new Random(seed);
+
+        // Precompute f and f·log f once per pattern, keyed by dense pattern index
+        this.freq = new double[index.size()];
+        this.freqLogFreq = new double[index.size()];
+        for (int i = 0; i < freq.length; i++) {
+            double f = index.frequency(i);
+            freq[i] = f;
+            freqLogFreq[i] = f > 0 ? f * Math.log(f) : 0.0;
+        }
+        this.uncollapsedCells = new Frontier(this::priority);
+    }
 
     /**
-     * Initializes the entropy controller using the current cell list and all extracted patterns.
+     * Creates a domain holding every pattern, carrying the frequency sums that make
+     * {@link #computeEntropy(int)} O(1). New cells should copy this domain.
      *
-     * @param uncollapsedCells the current list of uncollapsed cells
-     * @param patterns         the list of all available patterns (with frequency and label)
+     * @return a full domain weighted by pattern frequency
      */
-    public Entropy(List<Cell> uncollapsedCells, List<Pattern> patterns) {
-        this.uncollapsedCells = Objects.requireNonNull(uncollapsedCells, "uncollapsedCells cannot be null");
-        Objects.requireNonNull(patterns, "patterns cannot be null");
-
-        // Build frequency and label lookup maps
-        this.freq = patterns.stream().collect(Collectors.toMap(
-                Pattern::getId, Pattern::getFrequency));
-        this.centerLabel = patterns.stream().collect(Collectors.toMap(
-                Pattern::getId, Pattern::getCenterLabel));
+    public Domain fullDomain() {
+        return Domain.full(freq, freqLogFreq);
+    }
+
+    /**
+     * @return the frontier of uncollapsed cells, ordered by entropy
+     */
+    public Frontier getFrontier() {
+        return uncollapsedCells;
     }
 
     /**
@@ -61,99 +91,85 @@ public class Entropy {
      * where each pᵢ is proportional to the pattern's frequency.
      * Returns 0.0 if the cell is already forced or contradictory.
      *
-     * @param cell the cell to analyze
+     * With S = Σf and L = Σf·log f over the domain, H = log S − L / S. Both sums are
+     * maintained by the domain as patterns are pruned, so this is O(1).
+     *
+     * @param cell the cell id to analyze
      * @return entropy value (0.0 if size ≤ 1 or all frequencies are 0)
      */
-    private double computeEntropy(Cell cell) {
-        Set<Integer> domain = cell.getPossiblePatterns();
-
-        double total = domain.stream()
-                .mapToDouble(pid -> freq.getOrDefault(pid, 0))
-                .sum();
+    private double computeEntropy(int cell) {
+        Domain domain = cells.domain(cell);
+        double total = domain.weightSum();
 
         if (total <= 0 || domain.size() <= 1) {
             return 0.0;
         }
 
-        double H = 0.0;
-        for (int pid : domain) {
-            double f = freq.getOrDefault(pid, 0);
-            if (f <= 0) continue;
-            double p = f / total;
-            H -= p * Math.log(p); // natural log
-        }
-
-        return H;
+        // natural log; clamp tiny negative values left by floating-point cancellation
+        double H = Math.log(total) - domain.weightLogWeightSum() / total;
+        return Math.max(0.0, H);
     }
 
     /**
-     * Computes the current entropy of all uncollapsed cells.
+     * Heap key of a cell: its entropy, or +∞ for cells that are forced or blocked
+     * (entropy 0) and therefore must never be chosen for a random collapse.
      *
-     * @return a map from each cell to its computed entropy
+     * @param  cell  an uncollapsed cell id
+     * @return       the cell's priority in the frontier
      */
-    public Map<Cell, Double> computeEntropies() {
-        return uncollapsedCells.stream()
-                .collect(Collectors.toMap(Function.identity(), this::computeEntropy));
+    private double priority(int cell) {
+        double H = computeEntropy(cell);
+        return H > 0 ? H : Double.POSITIVE_INFINITY;
     }
 
     /**
-     * Finds the index of the uncollapsed cell with the lowest entropy > 0.
+     * Finds the uncollapsed cell with the lowest entropy > 0.
      * Returns -1 if no such cell exists (i.e., all are forced or blocked).
      *
-     * @return index in the uncollapsed list, or -1 if none remain
+     * @return the selected cell id, or -1 if none remain
      */
-    public int selectCellIndex() {
-        double bestH = Double.POSITIVE_INFINITY;
-        int bestIdx = -1;
-
-        for (int i = 0; i < uncollapsedCells.size(); i++) {
-            Cell c = uncollapsedCells.get(i);
-            double H = computeEntropy(c);
-            if (H > 0 && H < bestH) {
-                bestH = H;
-                bestIdx = i;
-            }
+    public int selectCell() {
+        if (uncollapsedCells.peekKey() == Double.POSITIVE_INFINITY) {
+            return -1;
         }
-
-        return bestIdx;
+        return uncollapsedCells.peek();
     }
 
     /**
      * Collapses the cell with the lowest entropy by randomly choosing one of
      * its possible patterns, weighted by global pattern frequency.
      *
-     * After collapsing, the cell is still present in the list, but is now fixed
+     * After collapsing, the cell is still present in the frontier, but is now fixed
      * to a single pattern and cannot be modified.
      *
-     * @return index of the collapsed cell in the uncollapsed list, or -1 if none could be collapsed
+     * @return the collapsed cell id, or -1 if none could be collapsed
      */
     public int collapseNextCell() {
-        int idx = selectCellIndex();
-        if (idx < 0) return -1;
+        int cell = selectCell();
+        if (cell < 0) return -1;
 
-        Cell cell = uncollapsedCells.get(idx);
-        List<Integer> domain = new ArrayList<>(cell.getPossiblePatterns());
+        int[] domain = cells.domain(cell).toArray();
 
         // Build cumulative frequency array for weighted sampling
         double total = 0;
-        List<Double> cumulative = new ArrayList<>(domain.size());
-        for (int pid : domain) {
-            total += freq.getOrDefault(pid, 0);
-            cumulative.add(total);
+        double[] cumulative = new double[domain.length];
+        for (int i = 0; i < domain.length; i++) {
+            total += freq[domain[i]];
+            cumulative[i] = total;
         }
 
         // Randomly select a pattern based on cumulative weights
         double r = rand.nextDouble() * total;
-        int chosen = domain.get(0); // fallback
-        for (int i = 0; i < cumulative.size(); i++) {
-            if (r <= cumulative.get(i)) {
-                chosen = domain.get(i);
+        int chosen = domain[0]; // fallback
+        for (int i = 0; i < cumulative.length; i++) {
+            if (r <= cumulative[i]) {
+                chosen = domain[i];
                 break;
             }
         }
 
         // Collapse the cell to that pattern and assign its center label
-        cell.collapseTo(chosen, centerLabel.get(chosen));
-        return idx;
+        cells.collapse(cell, chosen, index.centerLabel(chosen));
+        return cell;
     }
 }
@@ -0,0 +1,177 @@
+package wfc;
+
+import java.util.*;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * The WFC frontier: all uncollapsed cells, kept in an indexed binary min-heap of cell ids.
+ *
+ * Each cell is keyed by a priority supplied at construction (the collapse entropy, see
+ * {@link Entropy}); ties are broken by insertion order, so the cell that entered the
+ * frontier first wins, exactly as a left-to-right scan over an insertion-ordered list
+ * would pick it. The heap slot of every cell is tracked by id, which makes
+ * {@link #remove(int)} and {@link #update(int)} O(log n) instead of a linear search.
+ *
+ * A cell's key is only recomputed when {@link #update(int)} is called, so whoever
+ * changes a cell's domain must report it.
+ */
+public class Frontier {
+    private final IntToDoubleFunction priority;
+    private int[] heap = new int[16];
+    private double[] keys = new double[16];
+    private long[] sequence = new long[16];
+    private int size;
+    private long nextSequence;
+
+    /** slotOf[cell] = heap slot of the cell, or -1 when not queued */
+    private int[] slotOf = new int[0];
+
+    /**
+     * @param priority key of a cell id in the heap; lower keys are polled first
+     */
+    public Frontier(IntToDoubleFunction priority) {
+        this.priority = Objects.requireNonNull(priority, "priority must not be null");
+    }
+
+    /**
+     * Inserts an uncollapsed cell, keyed by its current priority.
+     *
+     * @param  cell  cell id to add; must not already be queued
+     * @throws IllegalArgumentException if the cell is already queued
+     */
+    public void add(int cell) {
+        if (contains(cell)) {
+            throw new IllegalArgumentException("Cell " + cell + " is already in the frontier");
+        }
+        if (cell >= slotOf.length) {
+            int old = slotOf.length;
+            slotOf = Arrays.copyOf(slotOf, Math.max(cell + 1, old * 2));
+            Arrays.fill(slotOf, old, slotOf.length, -1);
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            sequence = Arrays.copyOf(sequence, size * 2);
+        }
+        place(size, cell, priority.applyAsDouble(cell), nextSequence++);
+        size++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * Removes a cell in O(log n).
+     *
+     * @param  cell  cell id to remove
+     * @return       true if the cell was in this frontier
+     */
+    public boolean remove(int cell) {
+        if (!contains(cell)) return false;
+        int slot = slotOf[cell];
+        slotOf[cell] = -1;
+        size--;
+        if (slot != size) {
+            place(slot, heap[size], keys[size], sequence[size]);
+            if (!siftUp(slot)) {
+                siftDown(slot);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recomputes the key of a queued cell after its domain changed.
+     * Does nothing if the cell is not in this frontier.
+     *
+     * @param cell cell id whose priority may have changed
+     */
+    public void update(int cell) {
+        if (!contains(cell)) return;
+        int slot = slotOf[cell];
+        keys[slot] = priority.applyAsDouble(cell);
+        if (!siftUp(slot)) {
+            siftDown(slot);
+        }
+    }
+
+    /**
+     * @return the cell with the lowest key, or -1 if the frontier is empty
+     */
+    public int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * @return the lowest key, or +∞ if the frontier is empty
+     */
+    public double peekKey() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+    }
+
+    /**
+     * @param  cell  cell id
+     * @return       true if the cell is queued
+     */
+    public boolean contains(int cell) {
+        return cell >= 0 && cell < slotOf.length && slotOf[cell] >= 0;
+    }
+
+    /**
+     * @return number of queued cells
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no cell is queued
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void place(int slot, int cell, double key, long seq) {
+        heap[slot] = cell;
+        keys[slot] = key;
+        sequence[slot] = seq;
+        slotOf[cell] = slot;
+    }
+
+    /** @return true if slot a must sit above slot b */
+    private boolean before(int a, int b) {
+        int c = Double.compare(keys[a], keys[b]);
+        return c < 0 || (c == 0 && sequence[a] < sequence[b]);
+    }
+
+    /** @return true if the entry moved */
+    private boolean siftUp(int slot) {
+        int start = slot;
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!before(slot, parent)) break;
+            swap(slot, parent);
+            slot = parent;
+        }
+        return slot != start;
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int left = 2 * slot + 1;
+            if (left >= size) return;
+            int best = left;
+            int right = left + 1;
+            if (right < size && before(right, left)) best = right;
+            if (!before(best, slot)) return;
+            swap(slot, best);
+            slot = best;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int ca = heap[a];
+        double ka = keys[a];
+        long sa = sequence[a];
+        place(a, heap[b], keys[b], sequence[b]);
+        place(b, ca, ka, sa);
+    }
+}
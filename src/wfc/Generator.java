@@ -0,0 +1,438 @@
+package wfc;
+
+import constructor.Connect;
+import constructor.Expand;
+import patterns.PatternIndex;
+
+import java.util.*;
+
+/**
+ * One generation run over a {@link TrainedModel}: grows a synthetic graph by wave function
+ * collapse and returns its cells.
+ *
+ * A generator owns all mutable state of a run—the CellStore, the entropy-ordered frontier,
+ * the propagator's worklists and the connector's stub bookkeeping—and only reads the model.
+ * Any number of generators can therefore run on the same model at the same time, one per
+ * thread, without retraining. Each generator samples collapses from its own random
+ * generator, so a run is fully determined by the model and its seed.
+ *
+ * A run consists of:
+ * a. Growth phase
+ *    - Repeatedly select and collapse the frontier cell with lowest Shannon entropy.
+ *    - Expand a controlled number of new neighbor cells around each collapse.
+ *    - Prune and force-collapse neighbors via ConstraintPropagator.
+ *    - Wire remaining “stubs” among settled cells using Connect.
+ *    - Continue until settled cells reach lowerCap × targetSize or the frontier is empty.
+ * b. Cleanup phase
+ *    - Further collapse any remaining frontier cells and wire outstanding stubs.
+ *    - Expansion allowance decays linearly from full cap at 100% progress to zero
+ *      at the hard limit of upperCap × targetSize.
+ *
+ * Generators are single-use: {@link #generate()} may be called once.
+ */
+public final class Generator {
+    /** Desired number of collapsed cells */
+    private final int targetSize;
+
+    /** Base number of expansion slots per collapse wave */
+    private final int expansionCap;
+
+    /** Fraction of targetSize at which growth switches to cleanup */
+    private final double lowerCap;
+
+    /** Fraction of targetSize beyond which no new cells are added */
+    private final double upperCap;
+
+    /** Dense pattern tables (center label and original degree per index) */
+    private final PatternIndex patternIndex;
+
+    /** All cells, their adjacency, degree targets and collapse order */
+    private final CellStore cells;
+
+    /** Selects collapse order by Shannon entropy and samples patterns with this run's seed */
+    private final Entropy entropy;
+
+    /** Entropy-ordered heap of uncollapsed cells forming the WFC frontier */
+    private final Frontier frontier;
+
+    /** Domain of all pattern indices (copied into new cells) */
+    private final Domain allPatterns;
+
+    /** Enforces local compatibility constraints */
+    private final ConstraintPropagator propagator;
+
+    /** Wires remaining stubs based on compatibility tables */
+    private final Connect connector;
+
+    private boolean used;
+
+    /**
+     * Initializes the state of one run: an empty cell store, a frontier, a propagator and
+     * a connector over the model's tables.
+     *
+     * @param model           trained tables to generate from (only read)
+     * @param seed            seed of the random generator used to sample collapses
+     * @param lowerCap        fraction of the target size at which growth switches to cleanup
+     * @param upperCap        fraction of the target size beyond which no new cells are added
+     * @param parallelWiring  score and validate candidate edges on all cores
+     * @throws IllegalArgumentException if the caps are not 0 < lowerCap ≤ upperCap
+     */
+    public Generator(TrainedModel model, long seed, double lowerCap, double upperCap, boolean parallelWiring) {
+        Objects.requireNonNull(model, "model must not be null");
+        if (!(lowerCap > 0 && lowerCap <= upperCap)) {
+            throw new IllegalArgumentException("caps must satisfy 0 < lowerCap <= upperCap: "
+                    + lowerCap + ", " + upperCap);
+        }
+        this.targetSize = model.targetSize();
+        this.expansionCap = model.expansionCap();
+        this.lowerCap = lowerCap;
+        this.upperCap = upperCap;
+        this.patternIndex = model.patternIndex();
+
+        this.cells = new CellStore(model.compat().maxRadius());
+        this.entropy = new Entropy(patternIndex, cells, seed);
+        this.frontier = entropy.getFrontier();
+        this.allPatterns = entropy.fullDomain();
+        this.propagator = new ConstraintPropagator(model.compat(), cells);
+        this.connector = new Connect(cells, model.compat(), model.resourceAllocation(), parallelWiring, (u, v) -> {
+            propagator.markChanged(u);
+            propagator.markChanged(v);
+        });
+    }
+
+    /**
+     * Runs the growth and cleanup phases from a single seed cell holding every pattern.
+     *
+     * @return the generated cells, all collapsed
+     * @throws IllegalStateException if this generator has already run
+     */
+    public CellStore generate() {
+        if (used) {
+            throw new IllegalStateException("Generator has already run");
+        }
+        used = true;
+
+        // Seed: one cell containing all patterns
+        frontier.add(cells.addCell(allPatterns));
+
+        // 1) Growth phase: collapse, expand, propagate, connect
+        generation();
+
+        // 2) Cleanup phase: finalize graph beyond ~90% of target
+        performCleanup(expansionCap);
+        return cells;
+    }
+
+    /**
+     * Growth phase: constructs the generated graph by alternating collapse, expansion,
+     * constraint propagation, and stub wiring until approximately 90% of the target
+     * number of collapsed cells is reached or the frontier is empty.
+     *
+     * Steps:
+     * - Progress check: if settled cells ≥ 90% of targetSize, exit growth.
+     * - Entropy collapse: take the lowest-entropy cell from the frontier heap, collapse it,
+     *   record its pattern and update degreeTargets.
+     * - Budgeted expansion: compute remaining slots (expansionCap minus frontier size);
+     *   if positive, expand only around the newly collapsed cell.
+     * - Local propagation: prune and force-collapse any neighbors of the new cell.
+     * - Global wiring: connect stubs among all settled cells according to compatibility,
+     *   then propagate around the new edges to catch any new forced collapses.
+     *
+     * Repeat until no frontier remains, no further collapse is possible, or settled
+     * count reaches the growth threshold.
+     */
+    private void generation() {
+        while (!frontier.isEmpty()) {
+            // 1) Progress check: exit growth phase if we've reached ~90% of the target
+            double progress = (double) cells.settledCount() / targetSize;
+            if (progress >= lowerCap || cells.settledCount() >= targetSize) {
+                break;
+            }
+
+            // 2) Entropy-based collapse:
+            //    - take the lowest entropy >0 from the frontier heap, collapse, and record its degree
+            int collapsedCell = entropy.collapseNextCell();
+            if (collapsedCell < 0) {
+                break;  // no further collapses possible
+            }
+            frontier.remove(collapsedCell);
+            int pid = cells.collapsedPattern(collapsedCell);
+            cells.setDegreeTarget(collapsedCell, patternIndex.degree(pid));
+
+            // 3) Budgeted expansion:
+            //    - remaining slots = expansionCap – current frontier size
+            //    - if positive, expand around this cell
+            int remainingSlots = expansionCap - frontier.size();
+            if (remainingSlots > 0) {
+                Expand.expand(
+                        new int[]{collapsedCell},
+                        remainingSlots,
+                        new int[]{patternIndex.degree(pid)},
+                        allPatterns,
+                        cells,
+                        frontier
+                );
+                propagator.markChanged(collapsedCell);
+            }
+
+            // 4) Local propagation: prune & force-collapse neighbors of the newly collapsed cell
+            propagate(new int[]{collapsedCell}, expansionCap);
+
+            // 5) Global wiring & second propagation:
+            //    - connect stubs among all settled cells
+            //    - then propagate around the new edges to catch any new forced collapses
+            connector.connect();
+            propagate(new int[0], expansionCap);
+        }
+    }
+
+
+    /**
+     * Performs iterative constraint propagation, forced collapse, and local expansion.
+     *
+     * Starting from a collection of newly collapsed cells, this method:
+     * 1. Queues them as seeds and drains the propagator's worklist, which prunes the domains of
+     *    frontier cells around these seeds and around every edge added since the last drain.
+     * 2. Identifies any cells whose domain has been reduced to exactly one pattern (forced to collapse).
+     * 3. Collapses those forced cells immediately, records their original degrees and queues them as seeds.
+     * 4. Allocates a small number of new frontier cells around each newly collapsed cell,
+     *    scaled by √(number of forced cells) to prevent bursts of growth.
+     * 5. Repeats the process until no further cells are forced by pruning.
+     *
+     * Forced collapse occurs only when a cell’s possible-pattern set shrinks to size == 1
+     * as a direct result of propagation. Expansion uses the provided baseExpansionCap to
+     * control how many new cells may be created in each wave.
+     *
+     * @param recentlyCollapsed   the cells most recently collapsed (first wave seeds); may be empty
+     *                            when only new edges need to be propagated
+     * @param baseExpansionCap    baseline number of expansions allowed per wave
+     */
+    private void propagate(int[] recentlyCollapsed, int baseExpansionCap) {
+        // Queue the first wave of collapsed-cell seeds
+        for (int cell : recentlyCollapsed) {
+            propagator.markCollapsed(cell);
+        }
+
+        // Continue until no new cells are forced to collapse
+        while (true) {
+            // 1) Prune frontier cells around every queued seed and changed neighborhood
+            int[] forced = propagator.propagate(frontier);
+            if (forced.length == 0) {
+                break;  // no further forced collapses this wave
+            }
+
+            // 2) Immediately collapse each forced cell, record its degree and queue it as a seed
+            int[] forcedDegrees = new int[forced.length];
+            for (int i = 0; i < forced.length; i++) {
+                int cell = forced[i];
+                // Exactly one possibility remains
+                int chosenPattern = cells.domain(cell).first();
+                cells.collapse(cell, chosenPattern, patternIndex.centerLabel(chosenPattern));
+                frontier.remove(cell);
+                forcedDegrees[i] = patternIndex.degree(chosenPattern);
+                propagator.markCollapsed(cell);
+            }
+
+            // 3) Compute this wave’s expansion budget:
+            //    scale baseExpansionCap by sqrt(size of forced set), then subtract current frontier size
+            int waveSize = forced.length;
+            int scaledCap = (int) Math.ceil(Math.sqrt(waveSize)) * baseExpansionCap;
+            int expansionBudget = scaledCap - frontier.size();
+
+            // 4) Expand around newly collapsed cells if budget permits
+            if (expansionBudget > 0) {
+                Expand.expand(
+                        forced,
+                        expansionBudget,
+                        forcedDegrees,
+                        allPatterns,
+                        cells,
+                        frontier
+                );
+                for (int cell : forced) {
+                    propagator.markChanged(cell);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Cleanup phase: finalize wiring and collapse remaining cells after the growth phase (~90% of target).
+     *
+     * This method continues the WFC process by satisfying outstanding edge requirements (stubs) and closing
+     * out the frontier. It gradually reduces new cell creation as the target size is reached, and stops at
+     * an upper size cap. The goal is to end up with no open connections if possible (fully connected graph),
+     * or otherwise as few open stubs as possible if the size limit prevents further expansion. In all cases,
+     * every cell will be collapsed by the end of this phase.
+     *
+     * Steps:
+     * 1. **Compute Expansion Allowance:** Determine how many new cells can be added this iteration based on
+     *    current progress and how many edges remain unsatisfied. The allowance decays linearly from the base
+     *    expansion cap at 100% of target size down to zero at the upperCap (e.g., 110% of target).
+     * 2. **Check Completion/Limit:** If all edges are satisfied and no frontier remains, or if the hard size
+     *    limit is reached, break out of the loop (cleanup done or size cap reached).
+     * 3. **Fill Stubs if Needed:** If there are open stubs but no frontier cells to collapse (i.e., nowhere to
+     *    attach new neighbors), allocate new uncollapsed cells to fulfill those stubs (up to the expansion
+     *    allowance). This prevents stranded open connections.
+     * 4. **Phase A – Connect Stubs:** Attempt to greedily connect any pairs of collapsed cells that both have
+     *    open stubs, without violating compatibility. If any edges are added, propagate constraints around
+     *    them (this may force-collapse some frontier cells) and then loop back to recompute the situation.
+     * 5. **Phase B – Collapse Frontier:** If no stub connections were made in Phase A, pick the lowest-entropy
+     *    frontier cell and collapse it to a pattern. Move it to settled, record its target degree from the
+     *    pattern, and immediately try to connect its open edge slots to existing cells. If the expansion
+     *    allowance permits, also create new neighbor cells to satisfy the collapsed cell’s remaining degree
+     *    requirements. After this, propagate constraints from this newly collapsed cell (and any new cells
+     *    added) to prune domains or force additional collapses.
+     * 6. **Repeat:** Continue the loop to gradually close open stubs and collapse all cells, until done.
+     * 7. **Finalize – Collapse All:** After exiting the main loop, collapse any cells still in the frontier
+     *    one by one (no new expansions at this stage). After each collapse, connect any possible edges and
+     *    propagate constraints. This guarantees all cells are finalized.
+     *
+     * By the end, every cell is collapsed. If the upper size cap prevented closing all stubs, only a minimal
+     * number of open stubs will remain unsatisfied.
+     */
+    private void performCleanup(int baseExpansionCap) {
+        final double DECAY_START = 1.00;          // begin throttling expansions at 100% of target size
+        final double DECAY_END   = upperCap;      // no expansions allowed at or beyond hard cap (e.g., 110% of target)
+        final int hardUpperBound = (int) Math.ceil(targetSize * upperCap);
+
+        // Main loop: continue until all stubs closed & frontier empty, or size limit reached
+        while (true) {
+            // 1. Calculate progress and dynamic expansion allowance for this iteration
+            double progress = (double) cells.settledCount() / targetSize;
+            int openStubs   = cells.countOpenStubs();
+            // Linearly decay expansion budget from baseExpansionCap down to 0 as progress goes from 100% to upperCap%
+            int linearBudget = (int) Math.ceil(computeLinearDecay(progress, DECAY_START, DECAY_END) * baseExpansionCap);
+            // Determine how many new cells are actually needed to close all remaining stubs (beyond those already in frontier)
+            int missingToClose = Math.max(0, openStubs - frontier.size());
+            // Allow at most the smaller of the decayed budget or the number needed
+            int expansionAllowance = Math.min(linearBudget, missingToClose);
+
+            // 2. Check termination conditions
+            boolean allEdgesSatisfied   = (openStubs == 0);
+            boolean noFrontierCells     = frontier.isEmpty();
+            boolean atSizeLimit         = (cells.settledCount() >= hardUpperBound);
+            if ((allEdgesSatisfied && noFrontierCells) || atSizeLimit) {
+                // Completed all connections (and nothing left to collapse), or reached hard size cap
+                break;
+            }
+
+            // 3. If there are open stubs but no frontier cells to collapse, expand new cells to fill those stubs
+            if (noFrontierCells && openStubs > 0 && expansionAllowance > 0) {
+                // For each missing stub, create a new uncollapsed cell and attach it to a collapsed cell with an open slot
+                int newCellsToAdd = expansionAllowance;
+                for (int s = 0; s < cells.settledCount(); s++) {
+                    int cell = cells.settled(s);
+                    // Calculate how many extra neighbors this cell still needs
+                    int needed = cells.degreeTarget(cell) - cells.degree(cell);
+                    for (int i = 0; i < needed && newCellsToAdd > 0; i++) {
+                        // Initialize a new frontier cell with all possible patterns
+                        int newCell = cells.addCell(allPatterns);
+                        frontier.add(newCell);
+                        // Update adjacency: link the new cell with the current settled cell
+                        cells.addEdge(cell, newCell);
+                        propagator.markChanged(cell);
+                        newCellsToAdd--;
+                        if (newCellsToAdd == 0) break;
+                    }
+                    if (newCellsToAdd == 0) break;
+                }
+                // Continue to next iteration with newly added frontier cells (progress unchanged, frontier no longer empty)
+                continue;
+            }
+
+            // 4. Phase A – Greedily connect available stubs among collapsed cells
+            int edgesAdded = connector.connect();
+            if (edgesAdded > 0) {
+                // If any edges were added, propagate constraints around them in case they force collapses
+                propagate(new int[0], expansionAllowance);
+                // After propagation, re-evaluate openStubs/frontier in the next loop iteration
+                continue;
+            }
+
+            // 5. Phase B – Collapse one low-entropy frontier cell (if any remain)
+            if (!frontier.isEmpty()) {
+                int collapsedCell = entropy.collapseNextCell();
+                if (collapsedCell >= 0) {
+                    // Collapse the chosen frontier cell to a concrete pattern
+                    frontier.remove(collapsedCell);
+                    int patternId = cells.collapsedPattern(collapsedCell);
+                    // Record the target degree of this collapsed cell based on its pattern
+                    cells.setDegreeTarget(collapsedCell, patternIndex.degree(patternId));
+
+                    // Immediately attempt to connect this new cell's stubs to any other compatible settled cells
+                    connector.connect();
+                    // If the new cell still has open slots and we have budget, expand new neighbors for it
+                    if (expansionAllowance > 0) {
+                        Expand.expand(new int[]{collapsedCell}, expansionAllowance,
+                                new int[]{cells.degreeTarget(collapsedCell)}, allPatterns, cells, frontier);
+                        propagator.markChanged(collapsedCell);
+                    }
+                    // Propagate constraints from this collapse (and any new cells it introduced)
+                    propagate(new int[]{collapsedCell}, expansionAllowance);
+                    // Continue to re-evaluate after collapsing and expanding
+                    continue;
+                }
+            }
+
+            // 6. If no frontier collapse was possible and no edges were added, no further progress can be made under current conditions
+            break;
+        }
+
+        // 7. Final phase – collapse all remaining frontier cells without adding new cells
+        while (!frontier.isEmpty()) {
+            int collapsedCell = entropy.collapseNextCell();
+            if (collapsedCell < 0) {
+                // No collapsible cell found (should not normally happen unless contradiction); break to avoid infinite loop
+                break;
+            }
+            // Collapse the frontier cell and finalize it
+            frontier.remove(collapsedCell);
+            int patternId = cells.collapsedPattern(collapsedCell);
+            cells.setDegreeTarget(collapsedCell, patternIndex.degree(patternId));
+            // Connect any possible stub pairings now that this cell is collapsed
+            connector.connect();
+            // Propagate constraints from this newly collapsed cell (no new expansions at this stage)
+            propagate(new int[]{collapsedCell}, 0);
+        }
+
+        // 8. (Optional) Final attempt to connect any remaining stubs among fully settled cells
+        int remainingOpenStubs = cells.countOpenStubs();
+        if (remainingOpenStubs > 0) {
+            connector.connect();
+            // Note: We do not propagate here since no uncollapsed cells remain.
+            // Any remaining stubs at this point are due to compatibility or cap limitations and will remain as is.
+
+        }
+        // (Optional) print remaining stub connections if needed
+        int missingEdges = cells.countOpenStubs();
+        System.out.printf("cleanup | done %d stub connections remain unsatisfied%n", missingEdges);
+    }
+
+
+    /**
+     * Computes a linear decay factor between 1.0 and 0.0 as progress increases.
+     *
+     * When progress ≤ startProgress, returns 1.0 (full budget).
+     * When progress ≥ endProgress, returns 0.0 (no budget).
+     * Between these points, returns a linearly interpolated value.
+     *
+     * @param progress      current progress ratio (e.g. settledSize / targetSize)
+     * @param startProgress progress at which decay begins (inclusive)
+     * @param endProgress   progress at which decay ends (inclusive)
+     * @return              a factor in [0.0, 1.0] for scaling expansion budgets
+     */
+    private static double computeLinearDecay(double progress,
+                                             double startProgress,
+                                             double endProgress) {
+        if (progress <= startProgress) {
+            return 1.0;
+        }
+        if (progress >= endProgress) {
+            return 0.0;
+        }
+        // Linearly interpolate between startProgress→1.0 and endProgress→0.0
+        return 1.0 - (progress - startProgress) / (endProgress - startProgress);
+    }
+}
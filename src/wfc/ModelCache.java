@@ -0,0 +1,247 @@
+package wfc;
+
+import helper.Graph;
+import helper.Reader;
+import patterns.PatternExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Directory of trained models keyed by what they were trained from, so repeated runs on
+ * unchanged training files skip pattern extraction and compatibility entirely.
+ *
+ * The key of a model is a SHA-256 digest over the bytes of the edge and label files, the
+ * extraction radius, the size factor, {@link PatternExtractor#VERSION} and
+ * {@link TrainedModel#FORMAT_VERSION}. Editing a training file, changing a parameter or
+ * changing the extractor therefore never returns a stale model; entries of old keys are
+ * simply no longer read and age out.
+ *
+ * Entries are {@code <key>.bin} files in the model format of {@link TrainedModel#save}.
+ * The cache is bounded in bytes and evicts least recently used entries, using the file
+ * modification time as the access time: a hit touches its entry.
+ *
+ * Safe for concurrent use by threads and by separate processes sharing the directory:
+ * - entries are written to a temporary file and renamed into place atomically, so a
+ *   reader sees either no entry or a complete one
+ * - two jobs missing on the same key both train and the last rename wins; the models
+ *   are identical, so either is correct
+ * - eviction runs under an exclusive lock on {@code cache.lock} in the directory, and
+ *   also deletes temporary files that a killed writer left behind
+ * - an entry that disappears or cannot be read is treated as a miss and rewritten
+ */
+public final class ModelCache {
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "cache.lock";
+
+    /** Age after which a temporary file is assumed to belong to a writer that died */
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+
+    /** File locks are held per JVM, so threads of one process take turns on this first */
+    private static final Object EVICTION_LOCK = new Object();
+
+    private final Path dir;
+    private final long maxBytes;
+
+    /**
+     * @param dir       cache directory (created on first write)
+     * @param maxBytes  total size of the entries above which the least recently used are evicted
+     * @throws IllegalArgumentException if maxBytes is negative
+     */
+    public ModelCache(Path dir, long maxBytes) {
+        this.dir = Objects.requireNonNull(dir, "dir must not be null");
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must be non-negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the model for the given training files and parameters, from the cache when
+     * present; otherwise reads the graph, trains, and stores the result.
+     *
+     * @param  edgesPath           training edge file
+     * @param  labelsPath          training label file
+     * @param  radius              number of hops in each ego-network
+     * @param  sizeFactor          generated size as a multiple of the training graph's node count
+     * @param  parallelExtraction  parse the training files and build ego-network patterns on all cores
+     * @param  patternCatalog      extract through an off-heap PatternCatalog when training
+     * @param  catalogDir          scratch directory for the catalog's memory-mapped store, or null
+     *                             to keep it in direct memory
+     * @return                     the trained model
+     * @throws IOException if the training files cannot be read or the entry cannot be written
+     */
+    public TrainedModel getOrTrain(Path edgesPath,
+                                   Path labelsPath,
+                                   int radius,
+                                   int sizeFactor,
+                                   boolean parallelExtraction,
+                                   boolean patternCatalog,
+                                   Path catalogDir) throws IOException {
+        Path entry = dir.resolve(key(edgesPath, labelsPath, radius, sizeFactor) + ENTRY_SUFFIX);
+
+        // 1) Hit: load and mark as recently used
+        if (Files.exists(entry)) {
+            try {
+                TrainedModel model = TrainedModel.load(entry);
+                touch(entry);
+                return model;
+            } catch (NoSuchFileException e) {
+                // evicted between the check and the load
+            } catch (IOException e) {
+                System.err.printf("Discarding unreadable cached model %s: %s%n", entry, e.getMessage());
+            }
+        }
+
+        // 2) Miss: train, publish atomically, then trim the cache
+        Graph trainingGraph = Reader.load(edgesPath, labelsPath, parallelExtraction);
+        TrainedModel model = TrainedModel.train(
+                trainingGraph, radius, sizeFactor, parallelExtraction, patternCatalog, catalogDir);
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, entry.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            model.save(tmp);
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict(entry);
+        return model;
+    }
+
+    /**
+     * Deletes least recently used entries until the total size is at most maxBytes.
+     * The entry just written is never evicted, even if it alone exceeds the bound.
+     * Temporary files left by writers that died before publishing are deleted as well.
+     *
+     * @param  keep  entry to keep
+     * @throws IOException if the lock file cannot be opened or the directory cannot be listed
+     */
+    private void evict(Path keep) throws IOException {
+        synchronized (EVICTION_LOCK) {
+            try (FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    // 1) Sweep stale temporary files; a live writer keeps modifying its own
+                    sweepTemporaries();
+
+                    // 2) Snapshot every entry with its size and last use
+                    List<Path> entries = new ArrayList<>();
+                    Map<Path, Long> size = new HashMap<>();
+                    Map<Path, FileTime> used = new HashMap<>();
+                    long total = 0;
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + ENTRY_SUFFIX)) {
+                        for (Path file : files) {
+                            try {
+                                size.put(file, Files.size(file));
+                                used.put(file, Files.getLastModifiedTime(file));
+                            } catch (NoSuchFileException e) {
+                                continue;
+                            }
+                            entries.add(file);
+                            total += size.get(file);
+                        }
+                    }
+
+                    // 3) Drop the oldest until within bounds
+                    entries.sort(Comparator.comparing(used::get));
+                    for (Path file : entries) {
+                        if (total <= maxBytes) break;
+                        if (file.equals(keep)) continue;
+                        Files.deleteIfExists(file);
+                        total -= size.get(file);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes temporary files that have not been modified for STALE_TEMP_MILLIS, i.e. those
+     * of processes killed between creating the file and renaming it into place.
+     *
+     * @throws IOException if the directory cannot be listed
+     */
+    private void sweepTemporaries() throws IOException {
+        long cutoff = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + TEMP_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // published or swept meanwhile
+                }
+            }
+        }
+    }
+
+    /** Marks an entry as used now; losing a race with eviction is harmless. */
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // the entry was evicted meanwhile; the loaded model is still valid
+        }
+    }
+
+    /**
+     * @return hex SHA-256 over both files' bytes and every parameter that affects training
+     */
+    private static String key(Path edgesPath, Path labelsPath, int radius, int sizeFactor) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digestFile(digest, edgesPath);
+        digestFile(digest, labelsPath);
+        digest.update(ByteBuffer.allocate(4 * Integer.BYTES)
+                .putInt(radius)
+                .putInt(sizeFactor)
+                .putInt(PatternExtractor.VERSION)
+                .putInt(TrainedModel.FORMAT_VERSION)
+                .array());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /** Feeds the length and bytes of a file, so the boundary between the two files is unambiguous. */
+    private static void digestFile(MessageDigest digest, Path file) throws IOException {
+        digest.update(ByteBuffer.allocate(Long.BYTES).putLong(Files.size(file)).array());
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package wfc;
+
+import helper.ExpansionCap;
+import helper.Graph;
+import patterns.CompatibilityMatrix;
+import patterns.Pattern;
+import patterns.PatternCatalog;
+import patterns.PatternCompatibility;
+import patterns.PatternExtractor;
+import patterns.PatternIndex;
+import patterns.ResourceAllocation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Everything generation learns from one training graph, computed once and never modified.
+ *
+ * A model holds:
+ * - the dense pattern index, with the center label, center degree and frequency of every pattern
+ * - the multi-radius compatibility matrix used for propagation and validation
+ * - the resource-allocation scores used to order candidate edges
+ * - the size parameters derived from the training graph (target cell count and expansion cap)
+ *
+ * None of these tables change after training, so a single model can be shared by any
+ * number of {@link Generator}s running concurrently; all mutable generation state lives
+ * in the generators.
+ *
+ * A model can be saved to a compact binary file and loaded back without the training
+ * graph. The file is big-endian: a magic number and format version, the size parameters,
+ * then the pattern index, compatibility matrix and RA score tables, each as written by
+ * its own {@code writeTo}. Loading maps the file read-only and copies the tables out in
+ * bulk, so a fresh JVM can start generating without re-extracting patterns.
+ */
+public final class TrainedModel {
+    /** "WFCM" */
+    private static final int MAGIC = 0x5746434D;
+
+    /** Bumped whenever the layout of the model file changes */
+    public static final int FORMAT_VERSION = 1;
+
+    private final PatternIndex patternIndex;
+    private final CompatibilityMatrix compat;
+    private final ResourceAllocation ra;
+    private final int targetSize;
+    private final int expansionCap;
+
+    /**
+     * @param patternIndex  dense pattern tables
+     * @param compat        compatibility matrix over the dense pattern index
+     * @param ra            resource-allocation scores of every radius=1 compatible pair
+     * @param targetSize    desired number of collapsed cells
+     * @param expansionCap  base number of expansion slots per collapse wave
+     */
+    public TrainedModel(PatternIndex patternIndex,
+                        CompatibilityMatrix compat,
+                        ResourceAllocation ra,
+                        int targetSize,
+                        int expansionCap) {
+        this.patternIndex = Objects.requireNonNull(patternIndex, "patternIndex must not be null");
+        this.compat = Objects.requireNonNull(compat, "compat must not be null");
+        this.ra = Objects.requireNonNull(ra, "ra must not be null");
+        if (targetSize <= 0) {
+            throw new IllegalArgumentException("targetSize must be positive: " + targetSize);
+        }
+        if (expansionCap < 0) {
+            throw new IllegalArgumentException("expansionCap must be non-negative: " + expansionCap);
+        }
+        this.targetSize = targetSize;
+        this.expansionCap = expansionCap;
+    }
+
+    /**
+     * Trains a model on one graph.
+     *
+     * Steps:
+     * 1. Compute the size parameters:
+     *    - targetSize: sizeFactor × the number of training nodes
+     *    - expansionCap: 90th-percentile degree × slack factor
+     * 2. Extract ego-network patterns out to the given radius, number them densely and pack
+     *    the multi-radius compatibility tables into a CompatibilityMatrix.
+     * 3. Score every radius=1 pattern pair once for edge wiring (ResourceAllocation).
+     *
+     * @param trainingGraph       the input graph from which to learn patterns
+     * @param radius              number of hops in each ego-network
+     * @param sizeFactor          generated size as a multiple of the training graph's node count
+     * @param parallelExtraction  build ego-network patterns on all cores
+     * @return                    the trained model
+     */
+    public static TrainedModel train(Graph trainingGraph, int radius, int sizeFactor, boolean parallelExtraction) {
+        return train(trainingGraph, radius, sizeFactor, parallelExtraction, false);
+    }
+
+    /**
+     * Same as {@link #train(Graph, int, int, boolean, boolean, Path)}, with the catalog's
+     * store in a memory-mapped file under the system temporary directory.
+     *
+     * @param trainingGraph       the input graph from which to learn patterns
+     * @param radius              number of hops in each ego-network
+     * @param sizeFactor          generated size as a multiple of the training graph's node count
+     * @param parallelExtraction  build ego-network patterns on all cores (ignored with a catalog)
+     * @param patternCatalog      extract into an off-heap catalog
+     * @return                    the trained model
+     */
+    public static TrainedModel train(Graph trainingGraph,
+                                     int radius,
+                                     int sizeFactor,
+                                     boolean parallelExtraction,
+                                     boolean patternCatalog) {
+        return train(trainingGraph, radius, sizeFactor, parallelExtraction, patternCatalog,
+                Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Same as {@link #train(Graph, int, int, boolean)}, optionally streaming the pattern
+     * vocabulary through an off-heap {@link PatternCatalog} instead of holding every
+     * Pattern on the heap. The resulting model is the same either way; the catalog is
+     * sequential and meant for vocabularies that do not fit in memory.
+     *
+     * @param trainingGraph       the input graph from which to learn patterns
+     * @param radius              number of hops in each ego-network
+     * @param sizeFactor          generated size as a multiple of the training graph's node count
+     * @param parallelExtraction  build ego-network patterns on all cores (ignored with a catalog)
+     * @param patternCatalog      extract into an off-heap catalog
+     * @param catalogDir          scratch directory for the catalog's memory-mapped store, or
+     *                            null to keep it in direct memory (bounded by -XX:MaxDirectMemorySize)
+     * @return                    the trained model
+     */
+    public static TrainedModel train(Graph trainingGraph,
+                                     int radius,
+                                     int sizeFactor,
+                                     boolean parallelExtraction,
+                                     boolean patternCatalog,
+                                     Path catalogDir) {
+        Objects.requireNonNull(trainingGraph, "trainingGraph must not be null");
+
+        // 1) Size parameters
+        int targetSize = trainingGraph.getAllNodes().size() * sizeFactor;
+        int expansionCap = ExpansionCap.computeCap(trainingGraph, 0.90, 1.10);
+
+        // 2) Pattern extraction and dense index, then compatibility
+        PatternIndex patternIndex;
+        CompatibilityMatrix compat;
+        if (patternCatalog) {
+            try (PatternCatalog catalog = PatternCatalog.extract(trainingGraph, radius, catalogDir)) {
+                patternIndex = catalog.index(radius);
+                compat = catalog.compatibility(patternIndex);
+            }
+        } else {
+            Map<Integer, List<Pattern>> patternsByRadius =
+                    PatternExtractor.extractPatternsByRadius(trainingGraph, radius, parallelExtraction);
+            patternIndex = new PatternIndex(patternsByRadius.get(radius));
+            compat = CompatibilityMatrix.build(
+                    PatternCompatibility.computeCompatibilityByRadius(patternsByRadius), patternIndex);
+        }
+
+        // 3) Edge scores
+        ResourceAllocation ra = ResourceAllocation.build(compat);
+
+        return new TrainedModel(patternIndex, compat, ra, targetSize, expansionCap);
+    }
+
+    /**
+     * @return dense pattern tables (center label, center degree and frequency per pattern)
+     */
+    public PatternIndex patternIndex() {
+        return patternIndex;
+    }
+
+    /**
+     * @return compatibility matrix over the dense pattern index
+     */
+    public CompatibilityMatrix compat() {
+        return compat;
+    }
+
+    /**
+     * @return resource-allocation scores of every radius=1 compatible pattern pair
+     */
+    public ResourceAllocation resourceAllocation() {
+        return ra;
+    }
+
+    /**
+     * @return desired number of collapsed cells in a generated graph
+     */
+    public int targetSize() {
+        return targetSize;
+    }
+
+    /**
+     * @return base number of expansion slots per collapse wave
+     */
+    public int expansionCap() {
+        return expansionCap;
+    }
+
+    /**
+     * Writes this model to a file, replacing any existing one.
+     *
+     * @param  file  destination path (parent directories are created)
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Objects.requireNonNull(file, "file must not be null");
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(targetSize);
+            out.writeInt(expansionCap);
+            patternIndex.writeTo(out);
+            compat.writeTo(out);
+            ra.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads a model written by {@link #save(Path)}, memory-mapping the file.
+     *
+     * @param  file  model file
+     * @return       the model
+     * @throws IOException if the file cannot be read, is not a model file, was written in
+     *                     another format version, or is truncated or inconsistent
+     */
+    public static TrainedModel load(Path file) throws IOException {
+        Objects.requireNonNull(file, "file must not be null");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(in, file);
+        }
+    }
+
+    private static TrainedModel read(ByteBuffer in, Path file) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a model file: " + file);
+            }
+            int version = in.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Model file " + file + " has format version " + version
+                        + ", expected " + FORMAT_VERSION);
+            }
+            int targetSize = in.getInt();
+            int expansionCap = in.getInt();
+            PatternIndex patternIndex = PatternIndex.readFrom(in);
+            CompatibilityMatrix compat = CompatibilityMatrix.readFrom(in);
+            ResourceAllocation ra = ResourceAllocation.readFrom(in);
+            if (compat.patternCount() != patternIndex.size()) {
+                throw new IOException("Model file " + file + " is inconsistent: "
+                        + patternIndex.size() + " patterns, matrix over " + compat.patternCount());
+            }
+            if (ra.patternCount() != patternIndex.size()) {
+                throw new IOException("Model file " + file + " is inconsistent: "
+                        + patternIndex.size() + " patterns, RA scores over " + ra.patternCount());
+            }
+            return new TrainedModel(patternIndex, compat, ra, targetSize, expansionCap);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Model file " + file + " is truncated", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Model file " + file + " is corrupt: " + e.getMessage(), e);
+        }
+    }
+}